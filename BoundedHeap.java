@@ -0,0 +1,153 @@
+/**
+ * A BoundedHeap keeps the k greatest of the elements offered to it according
+ * to a Comparator, using a binary min-heap of at most k entries, so finding
+ * the k greatest of n elements takes O(n log k) time and O(k) memory.
+ *
+ * Every element is offered together with its position (e.g. its index in an
+ * array). Of two elements that the Comparator considers equal, the one with
+ * the smaller position counts as the greater one, so the result does not
+ * depend on the order in which the elements are offered.
+ *
+ *
+ */
+import java.util.Arrays;
+import java.util.Comparator;
+
+class BoundedHeap<T> {
+
+	/** The maximum number of elements kept. Must be >= 0. */
+	private final int capacity;
+
+	/** The order of the elements. */
+	private final Comparator<? super T> order;
+
+	/** The kept elements as a min-heap: elements[0] is the least of them. */
+	private final Object[] elements;
+
+	/** positions[i] is the position that elements[i] was offered with. */
+	private final long[] positions;
+
+	/** The number of kept elements. */
+	private int size;
+
+    /**
+     * Constructs a new, empty BoundedHeap.
+     *
+     * @param capacity the number of greatest elements to keep; must not be
+     *  less than 0
+     * @param order the order of the elements; must not be null
+     */
+    BoundedHeap(int capacity, Comparator<? super T> order) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Expected k >= 0; found " + capacity);
+		}
+		this.capacity = capacity;
+		this.order = order;
+		this.elements = new Object[capacity];
+		this.positions = new long[capacity];
+    }
+
+    /**
+     * Offers an element; it is kept if it is among the greatest elements
+     * offered so far.
+     *
+     * @param element the element; must not be null
+     * @param position the position of the element, used to break ties
+     */
+    void offer(T element, long position) {
+		if(this.size < this.capacity) {
+			this.elements[this.size] = element;
+			this.positions[this.size] = position;
+			this.siftUp(this.size++);
+		} else if(this.capacity > 0 && this.greater(element, position, 0)) {
+			this.elements[0] = element; // replace the least kept element
+			this.positions[0] = position;
+			this.siftDown(0);
+		}
+    }
+
+    /**
+     * Offers all elements kept by another BoundedHeap, with their positions.
+     *
+     * @param other must not be null
+     */
+    @SuppressWarnings("unchecked")
+    void offerAll(BoundedHeap<T> other) {
+		for(int i = 0; i < other.size; i++) {
+			this.offer((T) other.elements[i], other.positions[i]);
+		}
+    }
+
+    /**
+     * Returns the kept elements, greatest first.
+     *
+     * @param array an empty array of the element type
+     * @return a new array with the kept elements, greatest first
+     */
+    @SuppressWarnings("unchecked")
+    T[] toSortedArray(T[] array) {
+		Integer[] byRank = new Integer[this.size];
+		for(int i = 0; i < this.size; i++) {
+			byRank[i] = i;
+		}
+		Arrays.sort(byRank, (a, b) -> a.equals(b) ? 0
+				: this.greater((T) this.elements[a], this.positions[a], b) ? -1 : 1);
+
+		T[] result = Arrays.copyOf(array, this.size);
+		for(int i = 0; i < this.size; i++) {
+			result[i] = (T) this.elements[byRank[i]];
+		}
+		return result;
+    }
+
+    /**
+     * Returns whether element (offered with position) is greater than the
+     * kept element at index i.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean greater(T element, long position, int i) {
+		int c = this.order.compare(element, (T) this.elements[i]);
+		return c > 0 || (c == 0 && position < this.positions[i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftUp(int i) {
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(!this.greater((T) this.elements[parent], this.positions[parent], i)) {
+				break; // parent is not greater, heap order holds
+			}
+			this.swap(i, parent);
+			i = parent;
+		}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftDown(int i) {
+		while(true) {
+			int least = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < this.size && this.greater((T) this.elements[least], this.positions[least], left)) {
+				least = left;
+			}
+			if(right < this.size && this.greater((T) this.elements[least], this.positions[least], right)) {
+				least = right;
+			}
+			if(least == i) {
+				return;
+			}
+			this.swap(i, least);
+			i = least;
+		}
+    }
+
+    private void swap(int i, int j) {
+		Object element = this.elements[i];
+		this.elements[i] = this.elements[j];
+		this.elements[j] = element;
+		long position = this.positions[i];
+		this.positions[i] = this.positions[j];
+		this.positions[j] = position;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * The result of adding many Items to a Knapsack at once with one of its
+ * bulk addAllFrom... methods: how many Items were added, how many null
+ * references were skipped, and how much weight was added.
+ *
+ *
+ */
+public final class BulkAddResult {
+
+	/** The number of Items added. Must be >= 0. */
+	private final int itemsAdded;
+
+	/** The number of null references skipped. Must be >= 0. */
+	private final long nullsSkipped;
+
+	/** The total weight in grammes of the Items added. */
+	private final int weightAddedInGrammes;
+
+    /**
+     * Constructs a new BulkAddResult according to the parameters.
+     *
+     * @param itemsAdded the number of Items added; must not be negative
+     * @param nullsSkipped the number of null references skipped; must not
+     *  be negative
+     * @param weightAddedInGrammes the total weight of the Items added
+     */
+    BulkAddResult(int itemsAdded, long nullsSkipped, int weightAddedInGrammes) {
+		this.itemsAdded = itemsAdded;
+		this.nullsSkipped = nullsSkipped;
+		this.weightAddedInGrammes = weightAddedInGrammes;
+    }
+
+    /**
+     * @return the number of Items added
+     */
+    public int itemsAdded() {
+        return this.itemsAdded;
+    }
+
+    /**
+     * @return the number of null references that were skipped
+     */
+    public long nullsSkipped() {
+        return this.nullsSkipped;
+    }
+
+    /**
+     * @return the total weight in grammes of the Items added
+     */
+    public int weightAddedInGrammes() {
+        return this.weightAddedInGrammes;
+    }
+
+    /**
+     * @return true if at least one Item was added, as for Knapsack.addAll(Item[])
+     */
+    public boolean anyAdded() {
+        return this.itemsAdded > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "(added " + this.itemsAdded + ", skipped " + this.nullsSkipped
+                + " nulls, " + this.weightAddedInGrammes + " grammes)";
+    }
+}
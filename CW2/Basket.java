@@ -0,0 +1,219 @@
+/**
+ * A Basket is an order of several Items, each with a number of units,
+ * e.g. a PrintBook and two JPods, which are sold all together or not at
+ * all: if any Item has not enough units in stock, checkout() sells nothing.
+ *
+ * A checkout takes no lock; it is optimistic, like the compare-and-set
+ * sales of PhysicalItem (or JPod, PrintBook, ...). It reads the stock
+ * level of every line, checks it and prices the line at that level,
+ * before anything is taken. Then it takes the units of every line by one
+ * compare-and-set from the level it read. If another sale has changed the
+ * stock of a line in between, that compare-and-set fails: the units of the
+ * lines taken so far are put back, and the checkout starts over with the
+ * new levels. Until they are put back, other sales may find those units
+ * gone. The stock level itself serves as the version of a line, as the
+ * price of a unit depends on nothing else. Checkouts of Baskets with
+ * different Items therefore never wait for each other. Items other than
+ * PhysicalItems (EBooks, MusicTracks) are never out of stock.
+ *
+ * checkout() does not record anything in a SalesJournal: a Basket of
+ * Items whose sales are journaled is checked out with
+ * SalesJournal.checkout(basket) instead, which records every line.
+ * A Catalogue notices the Items sold out by a checkout on its next query.
+ *
+ * A Basket itself is not safe for use by several threads at the same
+ * time, but any number of Baskets can be checked out at the same time.
+ *
+ * @author
+ */
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class Basket {
+
+	/** The Items of the lines, in the order they were first added. */
+	private final List<Item> items = new ArrayList<>();
+
+	/** The number of units of every Item. */
+	private final IdentityHashMap<Item, Integer> units = new IdentityHashMap<>();
+
+    /**
+     * Is told about every line of a Basket once the checkout has taken the
+     * units of all lines, and nothing is put back any more.
+     */
+    interface LineRecorder {
+
+        /**
+         * Called for every line sold, in the order of the lines.
+         *
+         * @param line  the index of the line
+         * @param item  the Item of the line
+         * @param units  the number of units sold
+         * @param price  the total price of the units sold
+         * @param stockAfter  the number of units left right after the
+         *  sale; -1 for Items with an unlimited supply
+         */
+        void sold(int line, Item item, int units, int price, int stockAfter);
+    }
+
+    /* Modifiers */
+
+    /**
+     * Adds units units of an Item to this Basket. If the Item is in this
+     * Basket already, its number of units is increased.
+     *
+     * @param item  the Item; must not be null
+     * @param units  the number of units; must be greater than 0
+     * @return this Basket
+     */
+    public Basket add(Item item, int units) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item must not be null!");
+        }
+        if (units <= 0) {
+            throw new IllegalArgumentException("Expected units > 0; found " + units);
+        }
+        Integer before = this.units.get(item);
+        if (before == null) {
+            this.items.add(item);
+            this.units.put(item, units);
+        } else {
+            this.units.put(item, Math.addExact(before, units));
+        }
+        return this;
+    }
+
+    /**
+     * Sells all units of all Items in this Basket, or nothing. The Basket
+     * keeps its lines and can be checked out again.
+     *
+     * @return the total price in pence of all units sold
+     * @throws OutOfStockException if an Item has fewer units in stock than
+     *  this Basket holds; nothing is sold then
+     * @throws ArithmeticException if the total price does not fit into an
+     *  int; nothing is sold then either
+     */
+    public int checkout() {
+        return this.checkout(null);
+    }
+
+    /**
+     * Checks out this Basket as checkout() does, and tells recorder about
+     * every line sold, with the stock level it left behind (for
+     * SalesJournal, which records the lines).
+     *
+     * @param recorder  told about the lines sold; may be null
+     * @return the total price in pence of all units sold
+     */
+    int checkout(LineRecorder recorder) {
+        int lines = this.items.size();
+        int[] levels = new int[lines]; // the stock level every line was priced at; -1 if unlimited
+        int[] prices = new int[lines];
+        while (true) {
+            int total = this.price(levels, prices);
+            int taken = this.take(levels);
+            if (taken == lines) {
+                for (int line = 0; line < lines; line++) {
+                    Item item = this.items.get(line);
+                    int units = this.units.get(item);
+                    if (levels[line] < 0) {
+                        item.sellMany(units); // never out of stock
+                    }
+                    if (recorder != null) {
+                        recorder.sold(line, item, units, prices[line], levels[line] < 0 ? -1 : levels[line] - units);
+                    }
+                }
+                return total;
+            }
+            for (int line = 0; line < taken; line++) { // another sale came in between; put back and retry
+                if (levels[line] >= 0) {
+                    Item item = this.items.get(line);
+                    ((PhysicalItem) item).restock(this.units.get(item));
+                }
+            }
+        }
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of lines (different Items) in this Basket
+     */
+    public int size() {
+        return this.items.size();
+    }
+
+    /**
+     * Returns the Item of a line.
+     *
+     * @param line  the index of the line; between 0 and size() - 1
+     * @return the Item of the line
+     */
+    Item itemAt(int line) {
+        return this.items.get(line);
+    }
+
+    /**
+     * Returns the number of units of an Item in this Basket.
+     *
+     * @param item  the Item
+     * @return the number of units of item; 0 if it is not in this Basket
+     */
+    public int unitsOf(Item item) {
+        return this.units.getOrDefault(item, 0);
+    }
+
+    /* Helpers */
+
+    /**
+     * Reads the stock level of every line into levels (-1 for Items with an
+     * unlimited supply), checks it and prices the line at that level into
+     * prices, without taking anything.
+     *
+     * @return the total price of all lines
+     * @throws OutOfStockException if a line has fewer units in stock than
+     *  this Basket holds
+     * @throws ArithmeticException if a price does not fit into an int
+     */
+    private int price(int[] levels, int[] prices) {
+        int total = 0;
+        for (int line = 0; line < levels.length; line++) {
+            Item item = this.items.get(line);
+            int units = this.units.get(item);
+            if (item instanceof PhysicalItem) {
+                PhysicalItem physical = (PhysicalItem) item;
+                int howMany = physical.getHowMany();
+                if (howMany < units) {
+                    throw new OutOfStockException("Only " + howMany + " units of " + item.getName()
+                            + " in stock; " + units + " requested");
+                }
+                levels[line] = howMany;
+                prices[line] = physical.computeTotalPricePence(howMany, units);
+            } else {
+                levels[line] = -1;
+                prices[line] = Math.multiplyExact(units, item.computePricePence());
+            }
+            total = Math.addExact(total, prices[line]);
+        }
+        return total;
+    }
+
+    /**
+     * Takes the units of the PhysicalItems of the lines, one line after the
+     * other, each by one compare-and-set from the level in levels, until
+     * one fails.
+     *
+     * @return the number of lines before the first one whose stock was not
+     *  at its level any more; the number of lines if all were taken
+     */
+    private int take(int[] levels) {
+        for (int line = 0; line < levels.length; line++) {
+            Item item = this.items.get(line);
+            if (levels[line] >= 0 && ! ((PhysicalItem) item).takeUnitsAt(levels[line], this.units.get(item))) {
+                return line;
+            }
+        }
+        return levels.length;
+    }
+}
@@ -3,6 +3,8 @@
  *
  * @author 
  */
+import java.util.BitSet;
+
 public interface Book {
 
     /**
@@ -21,37 +23,159 @@ public interface Book {
      * @return whether the given isbn is well formed; false if null 
      */
     static boolean checkWellFormedISBN(String isbn) {
-        final int ISBN_LENGTH = 13; // constant for length of correct ISBN
-        final String PREFIX_ONE = "978"; // the first "Bookland" prefix
-        final String PREFIX_TWO = "979"; // the second "Bookland" prefix
         // null is /not/ a legal ISBN
         if (isbn == null) {
             return false;
         }
-        // isbn must have a certain length
-        if (isbn.length() != ISBN_LENGTH) {
-            return false;
+        return checkWellFormedISBN(isbn, 0, isbn.length());
+    }
+
+    /**
+     * Checks for every line of a text whether it is a well formed ISBN-13,
+     * with the same result as checkWellFormedISBN(String) for each line.
+     * Lines are separated by '\n' (a '\r' before it is ignored); a '\n' at
+     * the very end does not start another line. No String is created.
+     *
+     * @param lines  the text to check, e.g. a publisher feed with one ISBN
+     *  per line; must not be null
+     * @return a new BitSet in which bit i is set if and only if line i
+     *  (counting from 0) is a well formed ISBN-13
+     */
+    static BitSet checkWellFormedISBNs(CharSequence lines) {
+        BitSet result = new BitSet();
+        int length = lines.length();
+        int line = 0;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && lines.charAt(end) != '\n') {
+                end++;
+            }
+            int last = end > start && lines.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (checkWellFormedISBN(lines, start, last)) {
+                result.set(line);
+            }
+            line++;
+            start = end + 1;
         }
-        // all digits?
-        for (int i = 0; i < ISBN_LENGTH; i++) {
-            if (! Character.isDigit(isbn.charAt(i))) {
-                return false;
+        return result;
+    }
+
+    /**
+     * Checks for every line of ASCII text in a byte array whether it is a
+     * well formed ISBN-13, as checkWellFormedISBNs(CharSequence) does, but
+     * without decoding the bytes. Only the ASCII digits '0' to '9' count as
+     * digits.
+     *
+     * @param buffer  the text to check; must not be null
+     * @param offset  the index of the first byte of the text
+     * @param length  the number of bytes of the text
+     * @return a new BitSet in which bit i is set if and only if line i
+     *  (counting from 0) is a well formed ISBN-13
+     */
+    static BitSet checkWellFormedISBNs(byte[] buffer, int offset, int length) {
+        BitSet result = new BitSet();
+        int limit = offset + length;
+        int line = 0;
+        int start = offset;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer[end] != '\n') {
+                end++;
             }
+            int last = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+            if (checkWellFormedISBN(buffer, start, last)) {
+                result.set(line);
+            }
+            line++;
+            start = end + 1;
         }
-        // does isbn start with some legal prefix?  
-        if (! (isbn.startsWith(PREFIX_ONE) || isbn.startsWith(PREFIX_TWO))) {
-            return false;
+        return result;
+    }
+
+    /**
+     * Checks whether an ISBN-13 is well formed, as checkWellFormedISBN(String)
+     * does, and packs it into the number its 13 digits stand for, in the
+     * same pass and without creating any object. Non-ASCII digits count
+     * with their values, so ISBNs that differ only in how their digits are
+     * written are packed into the same number.
+     *
+     * @param isbn  to be checked and packed; may be null
+     * @return the number the digits of isbn stand for; -1 if isbn is not a
+     *  well formed ISBN-13 (or null)
+     */
+    static long packWellFormedISBN(CharSequence isbn) {
+        if (isbn == null) {
+            return -1L;
+        }
+        return packWellFormedISBN(isbn, 0, isbn.length());
+    }
+
+    /**
+     * Checks whether the characters from index start (inclusive) to end
+     * (exclusive) of isbn are a well formed ISBN-13, like
+     * checkWellFormedISBN(String), without allocating anything.
+     */
+    private static boolean checkWellFormedISBN(CharSequence isbn, int start, int end) {
+        return packWellFormedISBN(isbn, start, end) >= 0;
+    }
+
+    /**
+     * Checks whether the characters from index start (inclusive) to end
+     * (exclusive) of isbn are a well formed ISBN-13 and packs them into the
+     * number they stand for; -1 if they are not well formed.
+     */
+    private static long packWellFormedISBN(CharSequence isbn, int start, int end) {
+        final int ISBN_LENGTH = 13; // constant for length of correct ISBN
+        // isbn must have a certain length
+        if (end - start != ISBN_LENGTH) {
+            return -1L;
+        }
+        // does isbn start with some legal "Bookland" prefix, 978 or 979?
+        if (isbn.charAt(start) != '9' || isbn.charAt(start + 1) != '7'
+                || (isbn.charAt(start + 2) != '8' && isbn.charAt(start + 2) != '9')) {
+            return -1L;
         }
         // now consider the weighted sum according to the ISBN-13 rules from
         // https://en.wikipedia.org/w/index.php?title=International_Standard_Book_Number&oldid=808135079
+        long packed = 0L;
         int weightedSum = 0;
         for (int i = 0; i < ISBN_LENGTH; i++) {
-            char c = isbn.charAt(i);
+            // the value of the digit, also for non-ASCII digits, as
+            // Integer.valueOf would parse it; -1 if it is not a digit
+            int value = Character.isDigit(isbn.charAt(start + i))
+                ? Character.digit(isbn.charAt(start + i), 10) : -1;
+            if (value < 0) {
+                return -1L;
+            }
+            packed = packed * 10 + value;
+            if (i % 2 == 1) {
+                value *= 3;
+            }
+            weightedSum += value;
+        }
+        return weightedSum % 10 == 0 ? packed : -1L;
+    }
 
-            // we need the int value parsed from c's String representation,
-            // not the int value of the char itself!
-            String s = c + "";
-            int value = Integer.valueOf(s);
+    /**
+     * Checks whether the ASCII bytes from index start (inclusive) to end
+     * (exclusive) of isbn are a well formed ISBN-13.
+     */
+    private static boolean checkWellFormedISBN(byte[] isbn, int start, int end) {
+        final int ISBN_LENGTH = 13; // constant for length of correct ISBN
+        if (end - start != ISBN_LENGTH) {
+            return false;
+        }
+        if (isbn[start] != '9' || isbn[start + 1] != '7'
+                || (isbn[start + 2] != '8' && isbn[start + 2] != '9')) {
+            return false;
+        }
+        int weightedSum = 0;
+        for (int i = 0; i < ISBN_LENGTH; i++) {
+            int value = isbn[start + i] - '0';
+            if (value < 0 || value > 9) {
+                return false;
+            }
             if (i % 2 == 1) {
                 value *= 3;
             }
@@ -0,0 +1,266 @@
+/**
+ * A BookRegistry finds Books (PrintBooks, EBooks, ...) by their ISBN.
+ * A 13-digit ISBN fits in a long, so the registry keeps no Strings: every
+ * ISBN is packed into its numeric value (its key, see toKey), and the keys
+ * are kept in an open-addressing hash table of longs with linear probing.
+ *
+ * Most lookups from feeds are for ISBNs the registry does not know, so a
+ * Bloom filter is asked first. It answers "certainly not here" for almost
+ * all unknown ISBNs (about 1 in 200 get through), and only the others
+ * probe the table.
+ *
+ * Every ISBN is registered at most once: registering a second Book with
+ * the same ISBN replaces the first. ISBNs are compared by the values of
+ * their digits, so an ISBN written with non-ASCII digits is the same as
+ * the one written with the ASCII digits of the same values.
+ *
+ * A BookRegistry is not safe for use by several threads at the same time.
+ *
+ * @author
+ */
+public class BookRegistry {
+
+	/** The key of an empty slot. No well formed ISBN has this key. */
+	private static final long EMPTY = 0L;
+
+	/** The number of hash functions of the Bloom filter. */
+	private static final int BLOOM_HASHES = 3;
+
+	/** The keys, a power of two of them; EMPTY for an empty slot. */
+	private long[] keys = new long[16];
+
+	/** The Books, in the same slots as their keys. */
+	private Book[] books = new Book[16];
+
+	/** The number of Books. */
+	private int size;
+
+	/** The bits of the Bloom filter, 8 per slot of the table. */
+	private long[] bloom = new long[16 * 8 / 64];
+
+    /* Keys */
+
+    /**
+     * Returns the key of an ISBN, i.e. the number its 13 digits stand for,
+     * without creating any object.
+     *
+     * @param isbn  the ISBN
+     * @return the key of isbn; -1 if isbn is not a well formed ISBN-13
+     */
+    public static long toKey(CharSequence isbn) {
+        return Book.packWellFormedISBN(isbn);
+    }
+
+    /**
+     * Returns the ISBN that a key stands for, with ASCII digits.
+     *
+     * @param key  the key of a well formed ISBN-13
+     * @return the ISBN as 13 digits
+     */
+    public static String toISBN(long key) {
+        if (key < 9_780_000_000_000L || key > 9_799_999_999_999L) {
+            throw new IllegalArgumentException("Expected the key of an ISBN-13; found " + key);
+        }
+        return Long.toString(key);
+    }
+
+    /* Modifiers */
+
+    /**
+     * Registers a Book under its ISBN.
+     *
+     * @param book  the Book to register; must not be null
+     * @return the Book that was registered under the same ISBN before and
+     *  is replaced by book; null if there was none
+     */
+    public Book register(Book book) {
+        if (book == null) {
+            throw new IllegalArgumentException("Book must not be null!");
+        }
+        long key = toKey(book.getISBN());
+        if (key < 0) {
+            throw new IllegalArgumentException("ISBN is malformed");
+        }
+        int slot = this.find(key);
+        if (this.keys[slot] == key) {
+            Book previous = this.books[slot];
+            this.books[slot] = book;
+            return previous;
+        }
+        if (2 * (this.size + 1) > this.keys.length) { // keep the table at most half full
+            this.resize(2 * this.keys.length);
+            slot = this.find(key);
+        }
+        this.keys[slot] = key;
+        this.books[slot] = book;
+        this.size++;
+        this.addToBloom(key);
+        return null;
+    }
+
+    /**
+     * Removes the Book registered under an ISBN, if there is one.
+     *
+     * @param key  the key of the ISBN, see toKey
+     * @return the Book that was removed; null if there was none
+     */
+    public Book remove(long key) {
+        if (key <= EMPTY || ! this.mightContain(key)) {
+            return null;
+        }
+        int slot = this.find(key);
+        if (this.keys[slot] != key) {
+            return null;
+        }
+        Book removed = this.books[slot];
+        // shift later keys of the same run back, so that no probe stops early
+        int mask = this.keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; this.keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(this.keys[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.keys[hole] = this.keys[next];
+                this.books[hole] = this.books[next];
+                hole = next;
+            }
+        }
+        this.keys[hole] = EMPTY;
+        this.books[hole] = null;
+        this.size--;
+        return removed; // its bits stay in the Bloom filter, which only costs a probe
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of Books in this BookRegistry
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the Book registered under an ISBN.
+     *
+     * @param isbn  the ISBN to look for
+     * @return the Book registered under isbn; null if there is none or if
+     *  isbn is not a well formed ISBN-13
+     */
+    public Book get(CharSequence isbn) {
+        return this.get(toKey(isbn));
+    }
+
+    /**
+     * Returns the Book registered under the ISBN with the given key.
+     *
+     * @param key  the key of the ISBN, see toKey
+     * @return the Book registered under this key; null if there is none
+     */
+    public Book get(long key) {
+        if (key <= EMPTY || ! this.mightContain(key)) {
+            return null;
+        }
+        int slot = this.find(key);
+        return this.keys[slot] == key ? this.books[slot] : null;
+    }
+
+    /**
+     * Returns whether a Book is registered under the ISBN with the given key.
+     *
+     * @param key  the key of the ISBN, see toKey
+     * @return whether there is a Book with this key
+     */
+    public boolean contains(long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * Asks only the Bloom filter whether a Book may be registered under
+     * the ISBN with the given key.
+     *
+     * @param key  the key of the ISBN, see toKey
+     * @return false if there is certainly no Book with this key; true if
+     *  there may be one
+     */
+    public boolean mightContain(long key) {
+        long hash = mix(key);
+        int bits = this.bloom.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % bits;
+            if ((this.bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Helpers */
+
+    /**
+     * Returns the slot of key, or the empty slot where it would go.
+     */
+    private int find(long key) {
+        int mask = this.keys.length - 1;
+        int slot = home(key, mask);
+        while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Sets the bits of key in the Bloom filter.
+     */
+    private void addToBloom(long key) {
+        long hash = mix(key);
+        int bits = this.bloom.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % bits;
+            this.bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Moves all Books to a table with capacity slots and a Bloom filter
+     * to match, leaving out the bits of removed Books.
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        Book[] oldBooks = this.books;
+        this.keys = new long[capacity];
+        this.books = new Book[capacity];
+        this.bloom = new long[capacity * 8 / 64];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = this.find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.books[slot] = oldBooks[i];
+                this.addToBloom(oldKeys[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot where probing for key starts.
+     */
+    private static int home(long key, int mask) {
+        return (int) mix(key) & mask;
+    }
+
+    /**
+     * Spreads the bits of a key (the finaliser of MurmurHash3), since keys
+     * that differ only in their last digits are common.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb53fe63ec34dL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * A Catalogue holds Items of all kinds and finds them without looking at
+ * every Item: by name through a hash index, and by concrete class
+ * (PhysicalItem, JPod, PrintBook, EBook, MusicTrack, ...) through one
+ * bitmap per class. A further bitmap records which Items are in stock, so
+ * that e.g. all PrintBooks in stock are found by combining two bitmaps.
+ *
+ * Every Item gets a number (its id) when it is added, starting at 0.
+ * sellOne(id) and sellMany(id, units) keep the in-stock bitmap current,
+ * but Items may also be sold elsewhere (directly, in a Basket, through a
+ * SalesJournal, ...), and their stock may be raised again. The bitmap is
+ * therefore corrected on queries in both directions: a marked Item that
+ * turns out to be out of stock is unmarked, and the Items whose stock has
+ * been raised since the last query (see PhysicalItem.raisedItem) are
+ * looked up by identity and marked again if they are in stock. Only if
+ * more raises than PhysicalItem.RECENT_RAISES have happened since then
+ * are all unmarked Items looked at again, in one pass.
+ * refreshStock(id) corrects the bit of one Item at once.
+ *
+ * A Catalogue is not safe for use by several threads at the same time.
+ *
+ * @author
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class Catalogue {
+
+	/** The items by id. Only the first size entries are used. */
+	private Item[] items = new Item[16];
+
+	/** For every id, the next id of an item with the same name; -1 after the last one. */
+	private int[] nextWithSameName = new int[16];
+
+	/** The number of items. */
+	private int size;
+
+	/**
+	 * For every name, the first and the last id of the items with that name
+	 * and their number; the others are chained through nextWithSameName,
+	 * in the order they were added.
+	 */
+	private final HashMap<String, int[]> byName = new HashMap<>();
+
+	/** The id of every item (the first one, if it was added more than once). */
+	private final IdentityHashMap<Item, Integer> ids = new IdentityHashMap<>();
+
+	/** Whether any item has been added more than once, and so has more than one id. */
+	private boolean duplicates;
+
+	/** The ids of the items of a certain concrete class. */
+	private final HashMap<Class<?>, BitSet> byType = new HashMap<>();
+
+	/** The ids of the items that are in stock (or were when last looked at). */
+	private final BitSet inStock = new BitSet();
+
+	/** PhysicalItem.stockRaises() when the raised items were last looked at. */
+	private long stockRaisesSeen = PhysicalItem.stockRaises();
+
+    /* Modifiers */
+
+    /**
+     * Adds an Item to this Catalogue.
+     *
+     * @param item  the Item to add; must not be null
+     * @return the id of the Item in this Catalogue
+     */
+    public int add(Item item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item must not be null!");
+        }
+        if (this.size == this.items.length) {
+            this.items = Arrays.copyOf(this.items, this.size * 2);
+            this.nextWithSameName = Arrays.copyOf(this.nextWithSameName, this.size * 2);
+        }
+        int id = this.size++;
+        this.items[id] = item;
+        if (this.ids.putIfAbsent(item, id) != null) {
+            this.duplicates = true;
+        }
+
+        this.nextWithSameName[id] = -1;
+        int[] chain = this.byName.get(item.getName());
+        if (chain == null) {
+            this.byName.put(item.getName(), new int[] { id, id, 1 });
+        } else {
+            this.nextWithSameName[chain[1]] = id;
+            chain[1] = id;
+            chain[2]++;
+        }
+
+        this.byType.computeIfAbsent(item.getClass(), c -> new BitSet()).set(id);
+        this.inStock.set(id, item.inStock());
+        return id;
+    }
+
+    /**
+     * Sells one unit of the Item with the given id, as Item.sellOne(), and
+     * updates the in-stock bitmap.
+     *
+     * @param id  the id of the Item
+     * @return the price at which the Item was sold
+     */
+    public int sellOne(int id) {
+        Item item = this.get(id);
+        try {
+            return item.sellOne();
+        } finally {
+            this.inStock.set(id, item.inStock());
+        }
+    }
+
+    /**
+     * Sells units units of the Item with the given id, as Item.sellMany(),
+     * and updates the in-stock bitmap.
+     *
+     * @param id  the id of the Item
+     * @param units  the number of units to sell; must be greater than 0
+     * @return the total price of the units sold
+     */
+    public int sellMany(int id, int units) {
+        Item item = this.get(id);
+        try {
+            return item.sellMany(units);
+        } finally {
+            this.inStock.set(id, item.inStock());
+        }
+    }
+
+    /**
+     * Updates the in-stock bitmap for the Item with the given id, e.g. after
+     * it has been sold without this Catalogue.
+     *
+     * @param id  the id of the Item
+     */
+    public void refreshStock(int id) {
+        this.inStock.set(id, this.get(id).inStock());
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of Items in this Catalogue
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the Item with the given id.
+     *
+     * @param id  the id of the Item; must be between 0 and size() - 1
+     * @return the Item with the given id
+     */
+    public Item get(int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IndexOutOfBoundsException("No item with id " + id);
+        }
+        return this.items[id];
+    }
+
+    /**
+     * Returns the id of an Item in this Catalogue, by its identity, however
+     * many other Items have the same name.
+     *
+     * @param item  the Item; must have been added to this Catalogue
+     * @return the id of item (the first one, if it was added more than once)
+     */
+    public int idOf(Item item) {
+        Integer id = item == null ? null : this.ids.get(item);
+        if (id != null) {
+            return id;
+        }
+        throw new IllegalArgumentException("Item is not in the catalogue: " + (item == null ? null : item.getName()));
+    }
+
+    /**
+     * Returns the Items with the given name, in the order they were added.
+     *
+     * @param name  the name to look for
+     * @return a new list of the Items with this name; empty if there is none
+     */
+    public List<Item> findByName(String name) {
+        int[] chain = this.byName.get(name);
+        if (chain == null) {
+            return new ArrayList<>();
+        }
+        List<Item> result = new ArrayList<>(chain[2]);
+        for (int id = chain[0]; id >= 0; id = this.nextWithSameName[id]) {
+            result.add(this.items[id]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first Item added with the given name.
+     *
+     * @param name  the name to look for
+     * @return the first Item with this name; null if there is none
+     */
+    public Item findFirstByName(String name) {
+        int[] chain = this.byName.get(name);
+        return chain == null ? null : this.items[chain[0]];
+    }
+
+    /**
+     * Returns the Items whose class is exactly the given class (so
+     * itemsOfType(PhysicalItem.class) does not include JPods or
+     * PrintBooks), in the order they were added.
+     *
+     * @param type  the concrete class
+     * @return a new list of the Items of this class
+     */
+    public <T extends Item> List<T> itemsOfType(Class<T> type) {
+        BitSet ids = this.byType.get(type);
+        return ids == null ? new ArrayList<>() : this.collect(type, ids, false);
+    }
+
+    /**
+     * Returns the Items in stock whose class is exactly the given class,
+     * e.g. all PrintBooks in stock, in the order they were added. Usually
+     * only the Items of this class that are marked in stock are looked at.
+     *
+     * @param type  the concrete class
+     * @return a new list of the Items of this class that are in stock
+     */
+    public <T extends Item> List<T> inStockItemsOfType(Class<T> type) {
+        BitSet ids = this.byType.get(type);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        this.markRestockedItems();
+        BitSet candidates = (BitSet) ids.clone();
+        candidates.and(this.inStock);
+        return this.collect(type, candidates, true);
+    }
+
+    /**
+     * Marks the Items whose stock has been raised since the last query, if
+     * they are in stock. Looks at all unmarked Items instead if the Items
+     * of some of those raises are not remembered any more.
+     */
+    private void markRestockedItems() {
+        long raises = PhysicalItem.stockRaises(); // before looking, so no later raise is missed
+        if (raises == this.stockRaisesSeen) {
+            return;
+        }
+        if (raises - this.stockRaisesSeen > PhysicalItem.RECENT_RAISES || ! this.markRaised(raises)) {
+            for (int id = this.inStock.nextClearBit(0); id < this.size; id = this.inStock.nextClearBit(id + 1)) {
+                if (this.items[id].inStock()) {
+                    this.inStock.set(id);
+                }
+            }
+        }
+        this.stockRaisesSeen = raises;
+    }
+
+    /**
+     * Marks the Items of this Catalogue raised by the raises from
+     * stockRaisesSeen up to (excluding) raises, if they are in stock.
+     *
+     * @return false if the Item of one of the raises is not remembered
+     */
+    private boolean markRaised(long raises) {
+        for (long n = this.stockRaisesSeen; n < raises; n++) {
+            PhysicalItem item = PhysicalItem.raisedItem(n);
+            if (item == null) {
+                return false;
+            }
+            Integer id = this.ids.get(item);
+            if (id != null && item.inStock()) {
+                this.inStock.set(id);
+                for (int other = this.duplicates ? this.nextWithSameName[id] : -1; other >= 0;
+                        other = this.nextWithSameName[other]) {
+                    if (this.items[other] == item) { // the same Item, added again
+                        this.inStock.set(other);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the Items whose id is in ids, dropping (and unmarking) those
+     * that turn out to be out of stock if inStockOnly.
+     */
+    private <T extends Item> List<T> collect(Class<T> type, BitSet ids, boolean inStockOnly) {
+        List<T> result = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            Item item = this.items[id];
+            if (inStockOnly && ! item.inStock()) {
+                this.inStock.clear(id); // it was sold without this Catalogue
+                continue;
+            }
+            result.add(type.cast(item));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * A ContentStore holds the content of DataItems (the file of an EBook or
+ * MusicTrack, of getSizeBytes() bytes) and delivers it to buyers. Every
+ * DataItem is registered with a file on the local disk, and delivering
+ * it transfers the file to a channel (e.g. a SocketChannel or a Pipe)
+ * with FileChannel.transferTo, which the operating system can do without
+ * copying the content through the heap (with sendfile on Linux).
+ *
+ * A delivery can start at any byte, so an interrupted download can be
+ * resumed where it stopped, or a range of the content can be sent.
+ *
+ * At most a given number of deliveries run at the same time; further
+ * ones wait until one of those has finished, so that many buyers at once
+ * do not exhaust the file handles or the bandwidth of the machine.
+ *
+ * A ContentStore is safe for use by several threads at the same time.
+ *
+ * @author
+ */
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+public class ContentStore {
+
+	/** The most bytes passed to one call of transferTo; larger calls may be cut short anyway. */
+	private static final long CHUNK_BYTES = 64L * 1024 * 1024;
+
+	/** The file with the content of every registered DataItem. */
+	private final ConcurrentHashMap<DataItem, Path> files = new ConcurrentHashMap<>();
+
+	/** Permits for the deliveries that may run at the same time. */
+	private final Semaphore transfers;
+
+	/** The number of deliveries that may run at the same time. */
+	private final int maxConcurrentTransfers;
+
+    /**
+     * Constructs a new ContentStore without any content.
+     *
+     * @param maxConcurrentTransfers  the number of deliveries that may run
+     *  at the same time; must be greater than 0
+     */
+    public ContentStore(int maxConcurrentTransfers) {
+        if (maxConcurrentTransfers <= 0) {
+            throw new IllegalArgumentException("Expected maxConcurrentTransfers > 0; found "
+                    + maxConcurrentTransfers);
+        }
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+        this.transfers = new Semaphore(maxConcurrentTransfers, true); // first come, first served
+    }
+
+    /* Modifiers */
+
+    /**
+     * Registers the file with the content of a DataItem, replacing the one
+     * registered before, if any.
+     *
+     * @param item  the DataItem; must not be null
+     * @param file  the file; must not be null, and must have exactly
+     *  item.getSizeBytes() bytes
+     * @throws IOException  if the size of the file cannot be read
+     */
+    public void register(DataItem item, Path file) throws IOException {
+        if (item == null || file == null) {
+            throw new IllegalArgumentException("Item and file must not be null!");
+        }
+        long size = Files.size(file);
+        if (size != item.getSizeBytes()) {
+            throw new IllegalArgumentException("Expected a file of " + item.getSizeBytes()
+                    + " bytes for " + item.getName() + "; found " + size + " bytes in " + file);
+        }
+        this.files.put(item, file);
+    }
+
+    /**
+     * Sells one unit of a DataItem and delivers its content.
+     *
+     * @param item  the DataItem; must be registered
+     * @param target  where to deliver the content; must be a blocking channel
+     * @return the price at which the DataItem was sold
+     * @throws IOException  if the content cannot be delivered; the DataItem
+     *  is sold then nevertheless, and the delivery can be resumed with
+     *  deliver(item, target, position, count)
+     */
+    public int sellOneAndDeliver(DataItem item, WritableByteChannel target) throws IOException {
+        this.fileOf(item); // do not sell what cannot be delivered
+        int price = item.sellOne();
+        this.deliver(item, target);
+        return price;
+    }
+
+    /**
+     * Delivers all of the content of a DataItem.
+     *
+     * @param item  the DataItem; must be registered
+     * @param target  where to deliver the content; must be a blocking channel
+     * @return the number of bytes delivered
+     * @throws IOException  if the content cannot be delivered
+     */
+    public long deliver(DataItem item, WritableByteChannel target) throws IOException {
+        return this.deliver(item, target, 0, item.getSizeBytes());
+    }
+
+    /**
+     * Delivers a range of the content of a DataItem, e.g. to resume a
+     * delivery that stopped at byte position. Waits first if the greatest
+     * number of deliveries are running already.
+     *
+     * @param item  the DataItem; must be registered
+     * @param target  where to deliver the content; must be a blocking channel
+     * @param position  the first byte to deliver; must be between 0 and
+     *  item.getSizeBytes()
+     * @param count  the number of bytes to deliver; must not be negative;
+     *  fewer are delivered if the content ends before
+     * @return the number of bytes delivered
+     * @throws IOException  if the content cannot be delivered
+     * @throws InterruptedIOException  if the thread is interrupted while
+     *  it waits
+     */
+    public long deliver(DataItem item, WritableByteChannel target, long position, long count) throws IOException {
+        Path file = this.fileOf(item);
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null!");
+        }
+        if (position < 0 || position > item.getSizeBytes()) {
+            throw new IllegalArgumentException("Expected 0 <= position <= " + item.getSizeBytes()
+                    + "; found " + position);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Expected count >= 0; found " + count);
+        }
+        long end = position + Math.min(count, item.getSizeBytes() - position);
+        try {
+            this.transfers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to deliver " + item.getName());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long next = position;
+            while (next < end) {
+                long n = channel.transferTo(next, Math.min(end - next, CHUNK_BYTES), target);
+                if (n <= 0 && next >= channel.size()) {
+                    throw new EOFException("Content of " + item.getName() + " ends at " + channel.size()
+                            + " bytes; expected " + item.getSizeBytes());
+                }
+                next += n;
+            }
+            return next - position;
+        } finally {
+            this.transfers.release();
+        }
+    }
+
+    /* Accessors */
+
+    /**
+     * Returns whether the content of a DataItem is registered.
+     *
+     * @param item  the DataItem
+     * @return whether item has content in this ContentStore
+     */
+    public boolean contains(DataItem item) {
+        return item != null && this.files.containsKey(item);
+    }
+
+    /**
+     * @return the number of deliveries running at the moment
+     */
+    public int activeTransfers() {
+        return this.maxConcurrentTransfers - this.transfers.availablePermits();
+    }
+
+    /* Helpers */
+
+    /**
+     * Returns the file of a registered DataItem.
+     */
+    private Path fileOf(DataItem item) {
+        Path file = item == null ? null : this.files.get(item);
+        if (file == null) {
+            throw new IllegalArgumentException("No content for " + (item == null ? null : item.getName()));
+        }
+        return file;
+    }
+}
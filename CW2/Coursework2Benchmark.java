@@ -0,0 +1,381 @@
+/**
+ * "Driver class" to measure the performance of some of the functionalities
+ * provided by the Item hierarchy, so that changes to them can be compared
+ * with a saved baseline (see benchmark-baseline.txt).
+ *
+ * Every benchmark is run for a number of warmup iterations, whose results
+ * are thrown away, and then for a number of measured iterations. For each
+ * it prints the time per operation and the bytes allocated per operation
+ * on the heap, similar to JMH with -prof gc. Populations of Items are
+ * mixed (PhysicalItem, JPod, PrintBook, EBook, MusicTrack) so that calls
+ * of computePricePence cannot be inlined for a single class.
+ *
+ * Usage: java Coursework2Benchmark [largest population size
+ *   [PrintBook feed size [repeats per title]]]
+ * (default 1000000; sizes are powers of 10 from 1000; the feed of the
+ * interning benchmark has the largest population size by default, with
+ * every title and ISBN repeated 20 times. The 5 million PrintBook rows of
+ * benchmark-baseline.txt are from
+ * java -Xmx4g Coursework2Benchmark 1000 5000000 20 and ... 5000000 2000)
+ *
+ * @author
+ */
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class Coursework2Benchmark {
+
+    /* Some constants */
+
+    /** Number of warmup iterations per benchmark. */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    /** Number of measured iterations per benchmark. */
+    private static final int MEASURED_ITERATIONS = 5;
+
+    /** Minimum duration of one iteration in nanoseconds. */
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    /** Units in stock of every PhysicalItem, so that benchmarks do not sell out. */
+    private static final int STOCK = Integer.MAX_VALUE;
+
+    /** Valid ISBNs used in the benchmarks. */
+    private static final String[] ISBNS = { "9780134685991", "9780000000002" };
+
+    /** Results of benchmarked operations are added here so that they are not optimised away. */
+    private static volatile long sink;
+
+    /* Some helper methods to generate test objects */
+
+    /**
+     * @param size the number of Items
+     * @param random source of prices
+     * @return a mixed population of Items with plenty of stock
+     */
+    public static Item[] mkPopulation(int size, Random random) {
+        Item[] items = new Item[size];
+        for (int i = 0; i < size; i++) {
+            int price = random.nextInt(10000);
+            switch (i % 5) {
+                case 0: items[i] = new PhysicalItem("Item " + i, price, STOCK); break;
+                case 1: items[i] = new JPod("JPod " + i, price, STOCK); break;
+                case 2: items[i] = new PrintBook("Book " + i, price, STOCK, ISBNS[i % 2], 100); break;
+                case 3: items[i] = new EBook("EBook " + i, price, 1000L, ISBNS[i % 2]); break;
+                default: items[i] = new MusicTrack("Track " + i, price, 1000L, 180); break;
+            }
+        }
+        return items;
+    }
+
+    /* The benchmarks */
+
+    /**
+     * An operation to be measured. Returns a value for the sink.
+     */
+    private interface Operation {
+        long run(int i);
+    }
+
+    /**
+     * Measures an operation and prints the result.
+     *
+     * @param name  the name of the benchmark
+     * @param size  the population size, for the report
+     * @param op  the operation; called with 0, 1, 2, ...
+     */
+    private static void measure(String name, int size, Operation op) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double bestNanos = Double.MAX_VALUE;
+        double bytes = 0;
+        int i = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            long ops = 0;
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long now;
+            do {
+                for (int j = 0; j < 1024; j++) {
+                    sink += op.run(i++);
+                }
+                ops += 1024;
+                now = System.nanoTime();
+            } while (now - start < ITERATION_NANOS);
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+            if (iteration >= WARMUP_ITERATIONS) {
+                bestNanos = Math.min(bestNanos, (now - start) / (double) ops);
+                bytes += allocated / (double) ops / MEASURED_ITERATIONS;
+            }
+        }
+        System.out.printf("%-32s %10d %12.2f ns/op %10.1f B/op%n", name, size, bestNanos, bytes);
+    }
+
+    /**
+     * Measures an operation run by several threads at the same time and
+     * prints the wall-clock time per operation of all threads together.
+     *
+     * @param name  the name of the benchmark
+     * @param threads  the number of threads, for the report as well
+     * @param op  the operation; called with the thread number (from 0)
+     */
+    private static void measureContended(String name, int threads, Operation op) {
+        double bestNanos = Double.MAX_VALUE;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            long[] ops = new long[threads];
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers[t] = new Thread(() -> {
+                    long s = 0;
+                    do {
+                        for (int j = 0; j < 1024; j++) {
+                            s += op.run(thread);
+                        }
+                        ops[thread] += 1024;
+                    } while (System.nanoTime() - start < ITERATION_NANOS);
+                    sink += s;
+                });
+                workers[t].start();
+            }
+            long total = 0;
+            for (int t = 0; t < threads; t++) {
+                try {
+                    workers[t].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                total += ops[t];
+            }
+            long now = System.nanoTime();
+            if (iteration >= WARMUP_ITERATIONS) {
+                bestNanos = Math.min(bestNanos, (now - start) / (double) total);
+            }
+        }
+        System.out.printf("%-32s %10d %12.2f ns/op%n", name, threads, bestNanos);
+    }
+
+    /**
+     * Measures the throughput of ContentStore.deliver to a socket on the
+     * loopback interface, whose other end a second thread drains, and
+     * prints the best rate of the measured deliveries.
+     *
+     * @param sizeBytes  the size of the content to deliver
+     * @throws IOException  if the content or the socket cannot be set up
+     */
+    private static void measureDelivery(long sizeBytes) throws IOException {
+        Path file = Files.createTempFile("content", ".bin");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer block = ByteBuffer.allocate(1 << 20);
+            for (long written = 0; written < sizeBytes; written += block.capacity()) {
+                block.clear().limit((int) Math.min(block.capacity(), sizeBytes - written));
+                while (block.hasRemaining()) {
+                    out.write(block);
+                }
+            }
+        }
+        MusicTrack track = new MusicTrack("Payload", 99, sizeBytes, 600);
+        ContentStore store = new ContentStore(4);
+        store.register(track, file);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel sender = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel receiver = server.accept()) {
+                Thread drain = new Thread(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+                    try {
+                        while (receiver.read(buffer.clear()) >= 0) {
+                            // discard
+                        }
+                    } catch (IOException e) {
+                        // the sender has gone
+                    }
+                });
+                drain.start();
+                double bestSeconds = Double.MAX_VALUE;
+                for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+                    long start = System.nanoTime();
+                    sink += store.deliver(track, sender);
+                    if (iteration >= WARMUP_ITERATIONS) {
+                        bestSeconds = Math.min(bestSeconds, (System.nanoTime() - start) / 1e9);
+                    }
+                }
+                sender.shutdownOutput();
+                try {
+                    drain.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                System.out.printf("%-32s %10d %12.1f MB/s%n", "ContentStore.deliver (loopback)",
+                    sizeBytes, sizeBytes / bestSeconds / 1e6);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Measures loading size PrintBooks from a feed whose titles and ISBNs
+     * repeat (distinct different ones of each) but arrive as new Strings,
+     * with and without interning them in the StringPool, and prints the
+     * best time per Item and the heap retained per Item after a full
+     * collection.
+     *
+     * @param size  the number of PrintBooks
+     * @param distinct  the number of different titles and ISBNs
+     */
+    private static void measureInterning(int size, int distinct) {
+        String[] isbns = new String[distinct];
+        for (int j = 0; j < distinct; j++) {
+            String first12 = String.format("978%09d", j);
+            int sum = 0;
+            for (int k = 0; k < 12; k++) {
+                sum += (first12.charAt(k) - '0') * (k % 2 == 0 ? 1 : 3);
+            }
+            isbns[j] = first12 + (10 - sum % 10) % 10;
+        }
+        for (boolean intern : new boolean[] { false, true }) {
+            double bestNanos = Double.MAX_VALUE;
+            long retained = 0;
+            for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+                long heap = usedHeapBytes();
+                long start = System.nanoTime();
+                PrintBook[] books = new PrintBook[size];
+                for (int i = 0; i < size; i++) {
+                    String title = "Title " + (i % distinct); // a new String, as read from a feed
+                    String isbn = new String(isbns[i % distinct]);
+                    books[i] = intern
+                        ? new PrintBook(StringPool.intern(title), 999, STOCK, StringPool.intern(isbn), 100)
+                        : new PrintBook(title, 999, STOCK, isbn, 100);
+                }
+                long nanos = System.nanoTime() - start;
+                if (iteration >= WARMUP_ITERATIONS) {
+                    bestNanos = Math.min(bestNanos, nanos / (double) size);
+                }
+                retained = usedHeapBytes() - heap;
+                sink += books.length;
+            }
+            System.out.printf("%-32s %10d %12.2f ns/op %10.1f B/item%n",
+                intern ? "PrintBook feed (interned)" : "PrintBook feed (plain)", size, bestNanos,
+                retained / (double) size);
+        }
+    }
+
+    /**
+     * Returns the bytes used on the heap after a full collection.
+     */
+    private static long usedHeapBytes() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Main method for running all benchmarks.
+     *
+     * @param args optionally the largest population size, the size of the
+     *  PrintBook feed and how many times each title repeats in it
+     */
+    public static void main(String[] args) throws IOException {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int feed = args.length > 1 ? Integer.parseInt(args[1]) : largest;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        System.out.printf("%-32s %10s %15s %13s%n", "Benchmark", "size", "time", "alloc");
+        for (int size = 1000; size <= largest; size *= 10) {
+            Item[] items = mkPopulation(size, new Random(42));
+            int mask = Integer.highestOneBit(size) - 1; // cheap index into the population
+            measure("Item.sellOne (mixed)", size, i -> items[i & mask].sellOne());
+            measure("Item.computePricePence (mixed)", size, i -> items[i & mask].computePricePence());
+            measure("Item.computePriceString (mixed)", size,
+                i -> items[i & mask].computePriceString().length());
+            DataItemStore store = new DataItemStore();
+            DataItem[] dataItems = new DataItem[size];
+            int n = 0;
+            for (Item item : items) {
+                if (item instanceof DataItem) {
+                    store.add((DataItem) item);
+                    dataItems[n++] = (DataItem) item;
+                }
+            }
+            int dataItemCount = n;
+            measure("DataItem[] total size (objects)", size, i -> {
+                long total = 0;
+                for (int j = 0; j < dataItemCount; j++) {
+                    total += dataItems[j].getSizeBytes();
+                }
+                return total;
+            });
+            measure("DataItemStore.totalSizeBytes", size, i -> store.totalSizeBytes());
+            for (ItemReportWriter.Format format : ItemReportWriter.Format.values()) {
+                ItemReportWriter report = new ItemReportWriter(
+                    Channels.newChannel(OutputStream.nullOutputStream()), format);
+                measure("ItemReportWriter " + format, size, i -> {
+                    try {
+                        report.write(items[i & mask]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return report.count();
+                });
+            }
+        }
+        measure("Item.computePriceString(int)", 1, i -> Item.computePriceString(i).length());
+        StringBuilder text = new StringBuilder(64);
+        measure("Item.appendPriceString(SB)", 1, i -> {
+            text.setLength(0);
+            return Item.appendPriceString(text, i).length();
+        });
+        ByteBuffer bytes = ByteBuffer.allocate(64);
+        measure("Item.putPriceString(ByteBuffer)", 1, i -> {
+            bytes.clear();
+            return Item.putPriceString(bytes, i).position();
+        });
+        measure("Book.checkWellFormedISBN", 1, i -> Book.checkWellFormedISBN(ISBNS[i & 1]) ? 1 : 0);
+        measureInterning(feed, Math.max(1, feed / repeats)); // every title and ISBN repeats times
+
+        // baskets of two units of one JPod, one of another and a PrintBook;
+        // "hot": all threads buy from the same 4 JPods, "disjoint": each its own;
+        // with 1, 2, 4, ... threads up to the number of processors, so that
+        // disjoint checkouts should take less time per checkout the more
+        // threads there are, and hot ones show the cost of retries
+        int processors = Runtime.getRuntime().availableProcessors();
+        JPod[] hot = new JPod[4];
+        for (int j = 0; j < hot.length; j++) {
+            hot[j] = new JPod("Hot JPod " + j, 1999, STOCK);
+        }
+        Basket[] hotBaskets = new Basket[processors];
+        Basket[] disjointBaskets = new Basket[processors];
+        for (int t = 0; t < processors; t++) {
+            PrintBook book = new PrintBook("Book " + t, 999, STOCK, ISBNS[0], 100);
+            hotBaskets[t] = new Basket().add(hot[t % 4], 2).add(hot[(t + 1) % 4], 1).add(book, 1);
+            disjointBaskets[t] = new Basket().add(new JPod("JPod " + t, 1999, STOCK), 2)
+                .add(new JPod("Other JPod " + t, 1999, STOCK), 1).add(book, 1);
+        }
+        for (int threads = 1; ; threads = Math.min(2 * threads, processors)) {
+            measureContended("Basket.checkout (hot JPods)", threads, t -> hotBaskets[t].checkout());
+            measureContended("Basket.checkout (disjoint)", threads, t -> disjointBaskets[t].checkout());
+            if (threads == processors) {
+                break;
+            }
+        }
+
+        measureDelivery(256L * 1024 * 1024);
+        System.out.println(sink == 42 ? "" : "done");
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * A DataItemStore keeps a large number of EBooks and MusicTracks column by
+ * column instead of as objects: the prices, sizes and durations are kept
+ * in parallel arrays of primitives, one entry per DataItem (its index), so
+ * that aggregates such as the total size or playtime of a library of many
+ * millions of tracks are simple loops over one or two arrays, which the
+ * JIT compiler unrolls and vectorises, rather than visits of as many
+ * objects all over the heap.
+ *
+ * The names and ISBNs are kept as well (interned, see StringPool, if the
+ * DataItemStore is constructed to do so), so that every DataItem can be
+ * made again as an EBook or MusicTrack object when
+ * it is needed, by get(index), or through the typed views eBooks() and
+ * musicTracks(). These objects are new on every call, and a subclass of
+ * EBook or MusicTrack that was added comes back as an EBook or MusicTrack.
+ *
+ * A DataItemStore is not safe for use by several threads at the same time.
+ *
+ * @author
+ */
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DataItemStore {
+
+	/** The kinds of DataItem, as kept in kinds. */
+	private static final byte EBOOK = 0, MUSIC_TRACK = 1;
+
+	/** Whether the names and ISBNs are interned in the StringPool. */
+	private final boolean internStrings;
+
+	/** The number of DataItems. */
+	private int size;
+
+	/** The kind of every DataItem. */
+	private byte[] kinds = new byte[16];
+
+	/** The price of every DataItem in pence. */
+	private int[] pricesPence = new int[16];
+
+	/** The size of every DataItem in bytes. */
+	private long[] sizesBytes = new long[16];
+
+	/** The duration of every MusicTrack in seconds; 0 for EBooks. */
+	private int[] durationsSeconds = new int[16];
+
+	/** The name of every DataItem. */
+	private String[] names = new String[16];
+
+	/** The ISBN of every EBook; null for MusicTracks. */
+	private String[] isbns = new String[16];
+
+	/** The indices of the EBooks, in order; only the first eBookCount are used. */
+	private int[] eBookIndices = new int[16];
+
+	/** The number of EBooks. */
+	private int eBookCount;
+
+	/** The indices of the MusicTracks, in order; only the first musicTrackCount are used. */
+	private int[] musicTrackIndices = new int[16];
+
+	/** The number of MusicTracks. */
+	private int musicTrackCount;
+
+    /**
+     * Constructs a new, empty DataItemStore that keeps the names and ISBNs
+     * as they are given.
+     */
+    public DataItemStore() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new, empty DataItemStore.
+     *
+     * @param internStrings  whether to intern the names and ISBNs in the
+     *  StringPool; worth it for bulk loads in which the same names or
+     *  ISBNs come again and again as separate Strings
+     */
+    public DataItemStore(boolean internStrings) {
+        this.internStrings = internStrings;
+    }
+
+    /* Modifiers */
+
+    /**
+     * Adds the data of an EBook or MusicTrack to this DataItemStore.
+     *
+     * @param item  the EBook or MusicTrack; must not be null
+     * @return the index of the DataItem in this DataItemStore
+     */
+    public int add(DataItem item) {
+        if (item instanceof EBook) {
+            EBook book = (EBook) item;
+            return this.addEBook(book.getName(), book.computePricePence(), book.getSizeBytes(), book.getISBN());
+        }
+        if (item instanceof MusicTrack) {
+            MusicTrack track = (MusicTrack) item;
+            return this.addMusicTrack(track.getName(), track.computePricePence(), track.getSizeBytes(),
+                    track.getDurationSeconds());
+        }
+        throw new IllegalArgumentException("Expected an EBook or a MusicTrack; found " + item);
+    }
+
+    /**
+     * Adds an EBook to this DataItemStore without making an EBook object.
+     * The parameters must be as for the constructor of EBook.
+     *
+     * @param name  the name of the EBook; must not be null
+     * @param pricePence  the price in pence; must not be less than 0
+     * @param sizeBytes  the size in bytes; must be greater than 0
+     * @param isbn  the ISBN-13; must be well formed
+     * @return the index of the EBook in this DataItemStore
+     */
+    public int addEBook(String name, int pricePence, long sizeBytes, String isbn) {
+        checkDataItem(name, pricePence, sizeBytes);
+        if (! Book.checkWellFormedISBN(isbn)) {
+            throw new IllegalArgumentException("The ISBN is incorrect");
+        }
+        int index = this.append(EBOOK, name, pricePence, sizeBytes, 0, isbn);
+        if (this.eBookCount == this.eBookIndices.length) {
+            this.eBookIndices = Arrays.copyOf(this.eBookIndices, this.eBookCount * 2);
+        }
+        this.eBookIndices[this.eBookCount++] = index;
+        return index;
+    }
+
+    /**
+     * Adds a MusicTrack to this DataItemStore without making a MusicTrack
+     * object. The parameters must be as for the constructor of MusicTrack.
+     *
+     * @param name  the name of the MusicTrack; must not be null
+     * @param pricePence  the price in pence; must not be less than 0
+     * @param sizeBytes  the size in bytes; must be greater than 0
+     * @param durationSeconds  the duration in seconds; must be greater than 0
+     * @return the index of the MusicTrack in this DataItemStore
+     */
+    public int addMusicTrack(String name, int pricePence, long sizeBytes, int durationSeconds) {
+        checkDataItem(name, pricePence, sizeBytes);
+        if (durationSeconds <= 0) {
+            throw new IllegalArgumentException("The duration of the music track must be > 0");
+        }
+        int index = this.append(MUSIC_TRACK, name, pricePence, sizeBytes, durationSeconds, null);
+        if (this.musicTrackCount == this.musicTrackIndices.length) {
+            this.musicTrackIndices = Arrays.copyOf(this.musicTrackIndices, this.musicTrackCount * 2);
+        }
+        this.musicTrackIndices[this.musicTrackCount++] = index;
+        return index;
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of DataItems in this DataItemStore
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Makes the DataItem with the given index as an object.
+     *
+     * @param index  the index; must be between 0 and size() - 1
+     * @return a new EBook or MusicTrack with the data kept at index
+     */
+    public DataItem get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("No data item with index " + index);
+        }
+        if (this.kinds[index] == EBOOK) {
+            return new EBook(this.names[index], this.pricesPence[index], this.sizesBytes[index], this.isbns[index]);
+        }
+        return new MusicTrack(this.names[index], this.pricesPence[index], this.sizesBytes[index],
+                this.durationsSeconds[index]);
+    }
+
+    /**
+     * Returns a view of the EBooks in this DataItemStore, in the order they
+     * were added. Every call of get on the view makes a new EBook.
+     *
+     * @return a list of the EBooks, which follows later additions
+     */
+    public List<EBook> eBooks() {
+        return new AbstractList<EBook>() {
+            @Override
+            public EBook get(int i) {
+                if (i < 0 || i >= DataItemStore.this.eBookCount) {
+                    throw new IndexOutOfBoundsException("No EBook " + i);
+                }
+                return (EBook) DataItemStore.this.get(DataItemStore.this.eBookIndices[i]);
+            }
+
+            @Override
+            public int size() {
+                return DataItemStore.this.eBookCount;
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the MusicTracks in this DataItemStore, in the order
+     * they were added. Every call of get on the view makes a new MusicTrack.
+     *
+     * @return a list of the MusicTracks, which follows later additions
+     */
+    public List<MusicTrack> musicTracks() {
+        return new AbstractList<MusicTrack>() {
+            @Override
+            public MusicTrack get(int i) {
+                if (i < 0 || i >= DataItemStore.this.musicTrackCount) {
+                    throw new IndexOutOfBoundsException("No MusicTrack " + i);
+                }
+                return (MusicTrack) DataItemStore.this.get(DataItemStore.this.musicTrackIndices[i]);
+            }
+
+            @Override
+            public int size() {
+                return DataItemStore.this.musicTrackCount;
+            }
+        };
+    }
+
+    /* Aggregates */
+
+    /**
+     * @return the total size of all DataItems in bytes
+     */
+    public long totalSizeBytes() {
+        long[] sizes = this.sizesBytes;
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += sizes[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return the total duration of all MusicTracks in seconds
+     */
+    public long totalDurationSeconds() {
+        int[] durations = this.durationsSeconds;
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += durations[i]; // 0 for EBooks
+        }
+        return total;
+    }
+
+    /**
+     * @return the total price of one unit of every DataItem in pence
+     */
+    public long totalPricePence() {
+        int[] prices = this.pricesPence;
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += prices[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return the least size of a DataItem in bytes; 0 if there is none
+     */
+    public long minSizeBytes() {
+        long[] sizes = this.sizesBytes;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            min = Math.min(min, sizes[i]);
+        }
+        return this.size == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the greatest size of a DataItem in bytes; 0 if there is none
+     */
+    public long maxSizeBytes() {
+        long[] sizes = this.sizesBytes;
+        long max = 0; // all sizes are > 0
+        for (int i = 0; i < this.size; i++) {
+            max = Math.max(max, sizes[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the greatest duration of a MusicTrack in seconds; 0 if there
+     *  is none
+     */
+    public int maxDurationSeconds() {
+        int[] durations = this.durationsSeconds;
+        int max = 0;
+        for (int i = 0; i < this.size; i++) {
+            max = Math.max(max, durations[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the total size of the MusicTracks that last at least a given
+     * number of seconds, e.g. to estimate the storage for long tracks.
+     *
+     * @param minDurationSeconds  the least duration in seconds
+     * @return the total size in bytes of these MusicTracks
+     */
+    public long totalSizeBytesOfMusicTracksLasting(int minDurationSeconds) {
+        long[] sizes = this.sizesBytes;
+        int[] durations = this.durationsSeconds;
+        int min = Math.max(minDurationSeconds, 1); // EBooks have duration 0
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += durations[i] >= min ? sizes[i] : 0; // no branch to mispredict
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total size of the DataItems whose price lies in a range.
+     *
+     * @param minPricePence  the least price in pence
+     * @param maxPricePence  the greatest price in pence
+     * @return the total size in bytes of these DataItems; 0 if
+     *  minPricePence > maxPricePence
+     */
+    public long totalSizeBytesWithPriceBetween(int minPricePence, int maxPricePence) {
+        long[] sizes = this.sizesBytes;
+        int[] prices = this.pricesPence;
+        long total = 0;
+        for (int i = 0; i < this.size; i++) {
+            int p = prices[i];
+            total += p >= minPricePence && p <= maxPricePence ? sizes[i] : 0;
+        }
+        return total;
+    }
+
+    /* Helpers */
+
+    /**
+     * Checks the parameters that all DataItems have, as the constructors
+     * of Item and DataItem do.
+     */
+    private static void checkDataItem(String name, int pricePence, long sizeBytes) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null!");
+        }
+        if (pricePence < 0) {
+            throw new IllegalArgumentException("Expected pricePence >= 0; found " + pricePence);
+        }
+        if (sizeBytes < 1) {
+            throw new IllegalArgumentException("The byte size must be > 0");
+        }
+    }
+
+    /**
+     * Appends a row to all columns.
+     *
+     * @return the index of the row
+     */
+    private int append(byte kind, String name, int pricePence, long sizeBytes, int durationSeconds, String isbn) {
+        if (this.size == this.kinds.length) {
+            int capacity = this.size * 2;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.pricesPence = Arrays.copyOf(this.pricesPence, capacity);
+            this.sizesBytes = Arrays.copyOf(this.sizesBytes, capacity);
+            this.durationsSeconds = Arrays.copyOf(this.durationsSeconds, capacity);
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.isbns = Arrays.copyOf(this.isbns, capacity);
+        }
+        int index = this.size++;
+        this.kinds[index] = kind;
+        this.pricesPence[index] = pricePence;
+        this.sizesBytes[index] = sizeBytes;
+        this.durationsSeconds[index] = durationSeconds;
+        this.names[index] = this.internStrings ? StringPool.intern(name) : name;
+        this.isbns[index] = this.internStrings ? StringPool.intern(isbn) : isbn;
+        return index;
+    }
+}
@@ -4,8 +4,18 @@
  *
  * @author 
  */
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 public abstract class Item {
 
+    /** Number of amounts in pence, from 0, whose price Strings are cached. */
+    public static final int PRICE_STRING_CACHE_SIZE = 10_000;
+
+    /** The cached price Strings; null where not made yet. */
+    private static final String[] PRICE_STRINGS = new String[PRICE_STRING_CACHE_SIZE];
+
     /** The name of the item. Must not be null. */
     private String name;
 
@@ -36,9 +46,88 @@ public abstract class Item {
      * if necessary, updates the number of units of this Item in stock;
      * throws an OutOfStockException if this Item is not in stock.
      *
+     * For Items with a limited supply, checking the stock, computing the
+     * price and taking the unit out of stock happen as one atomic step,
+     * so concurrent calls never sell more units than there are, and each
+     * caller gets the price of exactly the unit it took.
+     *
      * @return the price at which the Item was sold
      */
     public final int sellOne() {
+        return this.takeOneUnit();
+    }
+
+    /**
+     * Sells one unit of this Item as sellOne() does, and also returns the
+     * number of units in stock right after this sale, as part of the same
+     * atomic step (for SalesJournal, which records both).
+     *
+     * @return the price at which the Item was sold in the high 32 bits,
+     *  and the number of units left in the low 32 bits; -1 there if the
+     *  Item has an unlimited supply
+     */
+    final long sellOneReportingStock() {
+        return this.takeOneUnitReportingStock();
+    }
+
+    /**
+     * Sells the given number of units of this Item at once and returns the
+     * total price; throws an OutOfStockException if fewer units are in
+     * stock, in which case nothing is sold. Like sellOne(), this is one
+     * atomic step for Items with a limited supply, and the total is the
+     * same as that of selling the units one by one with sellOne().
+     *
+     * @param units  the number of units to sell; must be greater than 0
+     * @return the total price in pence of the units sold
+     * @throws ArithmeticException if the total does not fit into an int;
+     *  nothing is sold then either
+     */
+    public final int sellMany(int units) {
+        if (units <= 0) {
+            throw new IllegalArgumentException("Expected units > 0; found " + units);
+        }
+        return this.takeUnits(units);
+    }
+
+    /**
+     * Takes the given number of units of this Item out of stock and returns
+     * their total price in pence; throws an OutOfStockException if fewer
+     * units are in stock, without taking any.
+     *
+     * The implementation in Item is for Items with an unlimited supply,
+     * whose price does not change when units are sold: it returns
+     * units * computePricePence(). Subclasses with a limited supply override
+     * it, as they do takeOneUnit().
+     *
+     * @param units  the number of units to take; greater than 0
+     * @return the total price of the units taken
+     */
+    protected int takeUnits(int units) {
+        if (units == 1) {
+            return this.takeOneUnit();
+        }
+        if (! this.inStock()) {
+            throw new OutOfStockException("Item out of stock!");
+        }
+        return Math.multiplyExact(units, this.computePricePence());
+    }
+
+    /**
+     * Takes one unit of this Item out of stock and returns its price in
+     * pence; throws an OutOfStockException if this Item is not in stock.
+     *
+     * The implementation in Item checks inStock(), computes the price and
+     * then calls updateStockAfterSale(), which is enough for Items with an
+     * unlimited supply. Subclasses with a limited supply override it to do
+     * all three in one atomic step.
+     *
+     * The method is protected instead of public because it is not meant
+     * to be called by external users of our Item data structure, who call
+     * sellOne() instead.
+     *
+     * @return the price at which the unit was sold
+     */
+    protected int takeOneUnit() {
         if (! this.inStock()) {
             throw new OutOfStockException("Item out of stock!");
         }
@@ -47,6 +136,20 @@ public abstract class Item {
         return result;
     }
 
+    /**
+     * Takes one unit of this Item out of stock like takeOneUnit() and
+     * returns its price and the number of units left, packed into a long
+     * as sellOneReportingStock() describes.
+     *
+     * The implementation in Item is for Items with an unlimited supply and
+     * reports -1 units left. Subclasses with a limited supply override it.
+     *
+     * @return the price at which the unit was sold and the units left
+     */
+    protected long takeOneUnitReportingStock() {
+        return ((long) this.takeOneUnit() << 32) | 0xffffffffL;
+    }
+
     /**
      * Updates the stock of the Item with the information that 1 unit
      * has been sold.
@@ -97,15 +200,147 @@ public abstract class Item {
     /**
      * Provides a String representation of an amount in pence.
      *
+     * The Strings for amounts from 0 to PRICE_STRING_CACHE_SIZE - 1 pence,
+     * which are most prices, are made once and then shared.
+     *
      * @param priceInPence  amount in pence
      * @return a String representation of the given amount in pence
      */
     public static String computePriceString(int priceInPence) {
+        if (priceInPence >= 0 && priceInPence < PRICE_STRING_CACHE_SIZE) {
+            String cached = PRICE_STRINGS[priceInPence];
+            if (cached == null) { // two threads may both make it, which does no harm
+                cached = appendPriceString(new StringBuilder(16), priceInPence).toString();
+                PRICE_STRINGS[priceInPence] = cached;
+            }
+            return cached;
+        }
         int pounds = priceInPence / 100;
         int pence = priceInPence % 100;
         return "GBP " + pounds + "." + (pence < 10 ? "0" : "") + pence;
     }
 
+    /**
+     * Appends the String representation of an amount in pence, as given
+     * by computePriceString(int), to a StringBuilder without creating any
+     * intermediate String.
+     *
+     * @param out  where to append the amount; must not be null
+     * @param priceInPence  amount in pence
+     * @return out
+     */
+    public static StringBuilder appendPriceString(StringBuilder out, int priceInPence) {
+        int pounds = priceInPence / 100;
+        int pence = priceInPence % 100;
+        out.append("GBP ").append(pounds).append('.');
+        if (pence < 10) {
+            out.append('0');
+        }
+        return out.append(pence);
+    }
+
+    /**
+     * Appends the String representation of an amount in pence, as given
+     * by computePriceString(int), to an Appendable (e.g. a Writer) without
+     * creating any intermediate String.
+     *
+     * @param out  where to append the amount; must not be null
+     * @param priceInPence  amount in pence
+     * @return out
+     * @throws IOException  if out throws one
+     */
+    public static <A extends Appendable> A appendPriceString(A out, int priceInPence) throws IOException {
+        int pounds = priceInPence / 100;
+        int pence = priceInPence % 100;
+        out.append("GBP ");
+        appendDigits(out, pounds);
+        out.append('.');
+        if (pence < 10) {
+            out.append('0');
+        }
+        appendDigits(out, pence);
+        return out;
+    }
+
+    /**
+     * Writes the String representation of an amount in pence, as given by
+     * computePriceString(int), into a ByteBuffer as ASCII, starting at its
+     * position, which is then moved past it.
+     *
+     * @param out  where to write the amount; must not be null
+     * @param priceInPence  amount in pence
+     * @return out
+     * @throws BufferOverflowException  if out has not enough room left, in
+     *  which case nothing is written
+     */
+    public static ByteBuffer putPriceString(ByteBuffer out, int priceInPence) {
+        int pounds = priceInPence / 100;
+        int pence = priceInPence % 100;
+        int length = 4 + countDigits(pounds) + 1 + (pence < 10 ? 1 : 0) + countDigits(pence);
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        int position = out.position();
+        out.put(position, (byte) 'G').put(position + 1, (byte) 'B')
+            .put(position + 2, (byte) 'P').put(position + 3, (byte) ' ');
+        int end = position + length;
+        end = putDigitsBefore(out, end, pence);
+        if (pence < 10) {
+            out.put(--end, (byte) '0');
+        }
+        out.put(--end, (byte) '.');
+        putDigitsBefore(out, end, pounds);
+        out.position(position + length);
+        return out;
+    }
+
+    /**
+     * Returns the number of chars of Integer.toString(value).
+     */
+    private static int countDigits(int value) {
+        int count = value < 0 ? 2 : 1;
+        for (long rest = Math.abs((long) value); rest >= 10; rest /= 10) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends the chars of Integer.toString(value), most significant first.
+     */
+    private static void appendDigits(Appendable out, int value) throws IOException {
+        long rest = value;
+        if (rest < 0) {
+            out.append('-');
+            rest = -rest;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= rest) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + rest / divisor % 10));
+        }
+    }
+
+    /**
+     * Puts the chars of Integer.toString(value) as ASCII so that they end
+     * just before index end, least significant first.
+     *
+     * @return the index of the first char put
+     */
+    private static int putDigitsBefore(ByteBuffer out, int end, int value) {
+        int rest = value < 0 ? value : -value; // negative, so that MIN_VALUE works too
+        do {
+            out.put(--end, (byte) ('0' - rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            out.put(--end, (byte) '-');
+        }
+        return end;
+    }
+
     /**
      * Provides a String representation of the price that the next unit
      * of this Item would cost.
@@ -0,0 +1,426 @@
+/**
+ * An ItemReportWriter writes a report about Items straight to a channel
+ * (e.g. a FileChannel), one Item at a time, through a buffer of a fixed
+ * size, so that reports of any number of Items take bounded memory. The
+ * report can be written in one of three formats:
+ *
+ * TEXT: for every Item the same text as its toString(), followed by a
+ *   line break, as println would print it;
+ * CSV: a header line and then one line per Item with the columns type,
+ *   name, pricePence, price, unitsLeft, bytes, seconds, isbn and pages,
+ *   where a column that does not apply to the Item is left empty;
+ * JSON_LINES: one JSON object per line and Item, with the same fields as
+ *   CSV, leaving out those that do not apply.
+ *
+ * Text is written as UTF-8. For the classes of this hierarchy the fields
+ * are written without building any String; for Items of other classes the
+ * TEXT format falls back to their toString().
+ *
+ * Nothing reaches the channel before the buffer is full, or flush() or
+ * close() is called.
+ *
+ * @author
+ */
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class ItemReportWriter implements Closeable, Flushable {
+
+    /**
+     * The formats an ItemReportWriter can write.
+     */
+    public enum Format {
+        /** The text of toString(), one Item after the other. */
+        TEXT,
+        /** Comma-separated values with a header line. */
+        CSV,
+        /** One JSON object per line. */
+        JSON_LINES
+    }
+
+	/** The default size of the buffer in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** The least size of the buffer in bytes, so that every field head fits. */
+	private static final int MIN_BUFFER_SIZE = 64;
+
+	/** The header line of the CSV format. */
+	private static final String CSV_HEADER = "type,name,pricePence,price,unitsLeft,bytes,seconds,isbn,pages\n";
+
+	/** The hexadecimal digits, for escapes in JSON. */
+	private static final String HEX_DIGITS = "0123456789abcdef";
+
+	/** How names are escaped. */
+	private static final int NO_ESCAPES = 0, CSV_ESCAPES = 1, JSON_ESCAPES = 2;
+
+	/** Where the report goes. Must not be null. */
+	private final WritableByteChannel channel;
+
+	/** The format of the report. Must not be null. */
+	private final Format format;
+
+	/** The bytes not yet written to the channel. */
+	private final ByteBuffer buffer;
+
+	/** The number of Items written so far. */
+	private long count;
+
+	/** Whether close() has been called. */
+	private boolean closed;
+
+    /**
+     * Constructs a new ItemReportWriter with a buffer of DEFAULT_BUFFER_SIZE
+     * bytes.
+     *
+     * @param channel  where to write the report; must not be null
+     * @param format  the format of the report; must not be null
+     */
+    public ItemReportWriter(WritableByteChannel channel, Format format) {
+        this(channel, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new ItemReportWriter according to the parameters.
+     *
+     * @param channel  where to write the report; must not be null
+     * @param format  the format of the report; must not be null
+     * @param bufferSize  the size of the buffer in bytes; must be at least 64
+     */
+    public ItemReportWriter(WritableByteChannel channel, Format format, int bufferSize) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel must not be null!");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Format must not be null!");
+        }
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Expected bufferSize >= " + MIN_BUFFER_SIZE
+                    + "; found " + bufferSize);
+        }
+        this.channel = channel;
+        this.format = format;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        if (format == Format.CSV) {
+            this.buffer.put(CSV_HEADER.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /* Modifiers */
+
+    /**
+     * Writes one Item to the report.
+     *
+     * @param item  the Item; must not be null
+     * @throws IOException  if the channel throws one
+     */
+    public void write(Item item) throws IOException {
+        if (item == null) {
+            throw new IllegalArgumentException("Item must not be null!");
+        }
+        if (this.closed) {
+            throw new IllegalStateException("ItemReportWriter is closed");
+        }
+        switch (this.format) {
+            case TEXT: this.writeText(item); break;
+            case CSV: this.writeCsv(item); break;
+            default: this.writeJson(item); break;
+        }
+        this.count++;
+    }
+
+    /**
+     * Writes all Items of items to the report, in the order of iteration,
+     * skipping null.
+     *
+     * @param items  the Items; must not be null
+     * @throws IOException  if the channel throws one
+     */
+    public void writeAll(Iterable<? extends Item> items) throws IOException {
+        for (Item item : items) {
+            if (item != null) {
+                this.write(item);
+            }
+        }
+    }
+
+    /**
+     * Writes all Items of a Catalogue to the report, in the order of their ids.
+     *
+     * @param catalogue  the Catalogue; must not be null
+     * @throws IOException  if the channel throws one
+     */
+    public void writeAll(Catalogue catalogue) throws IOException {
+        for (int id = 0; id < catalogue.size(); id++) {
+            this.write(catalogue.get(id));
+        }
+    }
+
+    /**
+     * Writes everything buffered to the channel.
+     *
+     * @throws IOException  if the channel throws one
+     */
+    @Override
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes everything buffered to the channel and closes the channel.
+     * Calling close() again has no effect.
+     *
+     * @throws IOException  if the channel throws one
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of Items written so far
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /* Formats */
+
+    /**
+     * Writes an Item like its toString(), and a line break.
+     */
+    private void writeText(Item item) throws IOException {
+        Class<?> type = item.getClass();
+        if (type != PhysicalItem.class && type != JPod.class && type != PrintBook.class
+                && type != EBook.class && type != MusicTrack.class) {
+            // we cannot know what toString() of other classes looks like
+            this.putText(item.toString(), NO_ESCAPES);
+            this.putAscii("\n");
+            return;
+        }
+        this.putAscii("*** ");
+        this.putText(type.getName(), NO_ESCAPES);
+        this.putAscii(" ***\nName: ");
+        this.putText(item.getName(), NO_ESCAPES);
+        this.putAscii("\nPrice: ");
+        this.putPrice(item.computePricePence());
+        if (item instanceof PhysicalItem) {
+            this.putAscii("\nUnits left: ");
+            this.putLong(((PhysicalItem) item).getHowMany());
+        }
+        if (item instanceof PrintBook) {
+            this.putAscii("\nISBN: ");
+            this.putText(((PrintBook) item).getISBN(), NO_ESCAPES);
+            this.putAscii("\nPages: ");
+            this.putLong(((PrintBook) item).getPages());
+        }
+        if (item instanceof DataItem) {
+            this.putAscii("\nBytes: ");
+            this.putLong(((DataItem) item).getSizeBytes());
+        }
+        if (item instanceof EBook) {
+            this.putAscii("\nISBN: ");
+            this.putText(((EBook) item).getISBN(), NO_ESCAPES);
+        }
+        if (item instanceof MusicTrack) {
+            this.putAscii("\nSeconds: ");
+            this.putLong(((MusicTrack) item).getDurationSeconds());
+        }
+        this.putAscii("\n");
+    }
+
+    /**
+     * Writes an Item as one line of CSV.
+     */
+    private void writeCsv(Item item) throws IOException {
+        int pricePence = item.computePricePence();
+        this.putCsvText(item.getClass().getName());
+        this.putAscii(",");
+        this.putCsvText(item.getName());
+        this.putAscii(",");
+        this.putLong(pricePence);
+        this.putAscii(",");
+        this.putPrice(pricePence);
+        this.putAscii(",");
+        if (item instanceof PhysicalItem) {
+            this.putLong(((PhysicalItem) item).getHowMany());
+        }
+        this.putAscii(",");
+        if (item instanceof DataItem) {
+            this.putLong(((DataItem) item).getSizeBytes());
+        }
+        this.putAscii(",");
+        if (item instanceof MusicTrack) {
+            this.putLong(((MusicTrack) item).getDurationSeconds());
+        }
+        this.putAscii(",");
+        if (item instanceof Book) {
+            this.putCsvText(((Book) item).getISBN());
+        }
+        this.putAscii(",");
+        if (item instanceof HasPages) {
+            this.putLong(((HasPages) item).getPages());
+        }
+        this.putAscii("\n");
+    }
+
+    /**
+     * Writes an Item as one line of JSON.
+     */
+    private void writeJson(Item item) throws IOException {
+        int pricePence = item.computePricePence();
+        this.putAscii("{\"type\":\"");
+        this.putText(item.getClass().getName(), JSON_ESCAPES);
+        this.putAscii("\",\"name\":\"");
+        this.putText(item.getName(), JSON_ESCAPES);
+        this.putAscii("\",\"pricePence\":");
+        this.putLong(pricePence);
+        this.putAscii(",\"price\":\"");
+        this.putPrice(pricePence);
+        this.putAscii("\"");
+        if (item instanceof PhysicalItem) {
+            this.putAscii(",\"unitsLeft\":");
+            this.putLong(((PhysicalItem) item).getHowMany());
+        }
+        if (item instanceof DataItem) {
+            this.putAscii(",\"bytes\":");
+            this.putLong(((DataItem) item).getSizeBytes());
+        }
+        if (item instanceof MusicTrack) {
+            this.putAscii(",\"seconds\":");
+            this.putLong(((MusicTrack) item).getDurationSeconds());
+        }
+        if (item instanceof Book) {
+            this.putAscii(",\"isbn\":\"");
+            this.putText(((Book) item).getISBN(), JSON_ESCAPES);
+            this.putAscii("\"");
+        }
+        if (item instanceof HasPages) {
+            this.putAscii(",\"pages\":");
+            this.putLong(((HasPages) item).getPages());
+        }
+        this.putAscii("}\n");
+    }
+
+    /* Encoding */
+
+    /**
+     * Makes sure that the buffer has room for n more bytes.
+     */
+    private void ensure(int n) throws IOException {
+        if (this.buffer.remaining() < n) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Puts a short constant of ASCII chars.
+     */
+    private void putAscii(String ascii) throws IOException {
+        this.ensure(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            this.buffer.put((byte) ascii.charAt(i));
+        }
+    }
+
+    /**
+     * Puts a price as Item.computePriceString(int) renders it.
+     */
+    private void putPrice(int pricePence) throws IOException {
+        this.ensure(24);
+        Item.putPriceString(this.buffer, pricePence);
+    }
+
+    /**
+     * Puts the decimal digits of value.
+     */
+    private void putLong(long value) throws IOException {
+        this.ensure(20);
+        long rest = value < 0 ? value : -value; // negative, so that MIN_VALUE works too
+        int length = value < 0 ? 2 : 1;
+        for (long r = rest; r <= -10; r /= 10) {
+            length++;
+        }
+        int position = this.buffer.position();
+        int end = position + length;
+        do {
+            this.buffer.put(--end, (byte) ('0' - rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            this.buffer.put(--end, (byte) '-');
+        }
+        this.buffer.position(position + length);
+    }
+
+    /**
+     * Puts text as a CSV field, in double quotes if it contains a comma,
+     * a double quote or a line break.
+     */
+    private void putCsvText(String text) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && ! quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (quote) {
+            this.putAscii("\"");
+            this.putText(text, CSV_ESCAPES);
+            this.putAscii("\"");
+        } else {
+            this.putText(text, NO_ESCAPES);
+        }
+    }
+
+    /**
+     * Puts text as UTF-8, escaping chars as needed for CSV or JSON. An
+     * unpaired surrogate is written as '?', as String.getBytes would.
+     */
+    private void putText(String text, int escapes) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            this.ensure(6);
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (escapes == CSV_ESCAPES && c == '"') {
+                    this.buffer.put((byte) '"').put((byte) '"');
+                } else if (escapes == JSON_ESCAPES && (c == '"' || c == '\\')) {
+                    this.buffer.put((byte) '\\').put((byte) c);
+                } else if (escapes == JSON_ESCAPES && c < 0x20) {
+                    this.buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put((byte) HEX_DIGITS.charAt(c >>> 4)).put((byte) HEX_DIGITS.charAt(c & 0xf));
+                } else {
+                    this.buffer.put((byte) c);
+                }
+            } else if (c < 0x800) {
+                this.buffer.put((byte) (0xc0 | c >>> 6)).put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                this.buffer.put((byte) (0xf0 | codePoint >>> 18)).put((byte) (0x80 | codePoint >>> 12 & 0x3f))
+                    .put((byte) (0x80 | codePoint >>> 6 & 0x3f)).put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                this.buffer.put((byte) '?');
+            } else {
+                this.buffer.put((byte) (0xe0 | c >>> 12)).put((byte) (0x80 | c >>> 6 & 0x3f))
+                    .put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+}
@@ -32,18 +32,45 @@ public class JPod extends PhysicalItem {
 	 * value for the price in pence that was passed to the constructor, the price that is
 	 * charged for the next unit is determined by the expression: (6 −n)·p
 	 * 
+	 * @param howMany  the number of units in stock before the sale
      * @return the price in pence of this Item
      */
 	@Override
-	public int computePricePence() {
+	protected int computePricePence(int howMany) {
 		// throw
-		if (super.getHowMany() >= 5) { //
-			return super.computePricePence();//
-		} else if (super.getHowMany() < 5 && super.getHowMany() > 0) {
-			return ((6 - super.getHowMany()) * super.computePricePence());
+		if (howMany >= 5) { //
+			return super.computePricePence(howMany);//
+		} else if (howMany < 5 && howMany > 0) {
+			return ((6 - howMany) * super.computePricePence(howMany));
 		} /*else {
 			throw new OutOfStockException();
 		}*/
 		return 0;
 	}
+
+    /**
+     * Returns the total price in pence of selling units JPods one after the
+     * other, starting with howMany in stock, without going through them one
+     * by one: units sold while 5 or more are in stock cost p each, and the
+     * units sold at stock levels m = a, ..., b below 5 cost
+     * (6 - a)·p + ... + (6 - b)·p = (6·k - (a + b)·k / 2)·p with k = b - a + 1.
+     *
+	 * @param howMany  the number of units in stock before the sale
+	 * @param units  the number of units sold; between 1 and howMany
+     * @return the total price in pence
+     */
+	@Override
+	protected int computeTotalPricePence(int howMany, int units) {
+		long p = super.computePricePence(howMany);
+		int last = howMany - units + 1; // the stock level when the last unit is sold
+		long full = Math.max(0, howMany - Math.max(last, 5) + 1); // levels >= 5
+		long tiers = 0; // the sum of (6 - m) over the levels m < 5
+		int a = last;
+		int b = Math.min(howMany, 4);
+		if (b >= a) {
+			long k = b - a + 1;
+			tiers = 6 * k - (a + b) * k / 2;
+		}
+		return Math.toIntExact(p * (full + tiers));
+	}
 }
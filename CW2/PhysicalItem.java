@@ -5,10 +5,45 @@
  *
  * @author 
  */
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class PhysicalItem extends Item {
 
-	/** The physical amount of the item in pence. Must be >= 0. */
-	private int howMany;
+	/** Atomic compare-and-set access to howMany, without an extra object per item. */
+	private static final AtomicIntegerFieldUpdater<PhysicalItem> HOW_MANY =
+			AtomicIntegerFieldUpdater.newUpdater(PhysicalItem.class, "howMany");
+
+	/** The number of the most recent raises of stock whose Items are remembered; a power of 2. */
+	static final int RECENT_RAISES = 4096;
+
+	/**
+	 * The number of times the stock of any PhysicalItem has been raised, so
+	 * that a Catalogue can tell whether Items it found out of stock may be
+	 * in stock again.
+	 */
+	private static final AtomicLong STOCK_RAISES = new AtomicLong();
+
+	/** The most recent raises; raise n is in slot n % RECENT_RAISES until a later one replaces it. */
+	private static final AtomicReferenceArray<Raise> RAISED = new AtomicReferenceArray<>(RECENT_RAISES);
+
+	/** The physical amount of the item in pence. Must be >= 0. Only changed through HOW_MANY. */
+	private volatile int howMany;
+
+    /**
+     * A raise of the stock of a PhysicalItem, and its number.
+     */
+    private static final class Raise {
+
+		final long number;
+		final PhysicalItem item;
+
+		Raise(long number, PhysicalItem item) {
+			this.number = number;
+			this.item = item;
+		}
+    }
 
     /**
      * Constructs a new PhysicalItem according to the parameters.
@@ -50,6 +85,120 @@ public class PhysicalItem extends Item {
 		return howMany;
 	}
 
+	/**
+     * Returns the price in pence of the next unit of this Item at the
+     * current stock level.
+     *
+     * @return the price in pence of this Item
+     */
+	@Override
+	public int computePricePence() {
+		return computePricePence(howMany);
+	}
+
+	/**
+     * Returns the price in pence of a unit of this Item that is sold when
+     * howMany units are in stock (before the sale). For a PhysicalItem the
+     * price does not depend on the stock; subclasses whose price does, like
+     * JPod, override this method rather than computePricePence().
+     *
+     * @param howMany  the number of units in stock before the sale
+     * @return the price in pence of a unit sold at that stock level
+     */
+	protected int computePricePence(int howMany) {
+		return super.computePricePence();
+	}
+
+	/**
+     * Takes one unit out of stock and returns its price, as one atomic step:
+     * the stock level is read, the price for that level is computed, and
+     * the level is decreased by compare-and-set only if no other thread has
+     * changed it in the meantime (otherwise this is retried). There is no
+     * lock, so sales of different items never wait for each other.
+     *
+     * @return the price of the unit taken, computed for the stock level
+     *  it was taken at
+     */
+	@Override
+	protected int takeOneUnit() {
+		return (int) (takeOneUnitReportingStock() >>> 32);
+	}
+
+	/**
+     * Takes one unit out of stock as takeOneUnit() does, and also reports
+     * the stock level it left behind.
+     *
+     * @return the price of the unit taken in the high 32 bits and the
+     *  number of units left in the low 32 bits
+     */
+	@Override
+	protected long takeOneUnitReportingStock() {
+		while(true) {
+			int n = howMany;
+			if(n <= 0) {
+				throw new OutOfStockException("Item out of stock!");
+			}
+			int price = computePricePence(n);
+			if(HOW_MANY.compareAndSet(this, n, n - 1)) {
+				return ((long) price << 32) | (n - 1);
+			}
+		}
+	}
+
+	/**
+     * Takes units out of stock and returns their total price, as one atomic
+     * step like takeOneUnit(): either all units are taken at the prices of
+     * the stock levels they were taken at, or none are.
+     *
+     * @param units  the number of units to take
+     * @return the total price of the units taken
+     */
+	@Override
+	protected int takeUnits(int units) {
+		while(true) {
+			int n = howMany;
+			if(n < units) {
+				throw new OutOfStockException("Only " + n + " units in stock; " + units + " requested");
+			}
+			int total = computeTotalPricePence(n, units); // may throw, before anything is taken
+			if(HOW_MANY.compareAndSet(this, n, n - units)) {
+				return total;
+			}
+		}
+	}
+
+	/**
+     * Takes units out of stock if exactly howMany units are in stock, by
+     * one compare-and-set, e.g. for a Basket that has priced its lines at
+     * the stock levels it read before.
+     *
+     * @param howMany  the number of units expected in stock
+     * @param units  the number of units to take; between 1 and howMany
+     * @return whether the units were taken; false if the stock was not
+     *  howMany (any more), and then nothing was taken
+     */
+	boolean takeUnitsAt(int howMany, int units) {
+		return HOW_MANY.compareAndSet(this, howMany, howMany - units);
+	}
+
+	/**
+     * Returns the total price in pence of selling units units of this Item,
+     * one after the other, starting at a stock level of howMany, i.e. the
+     * sum of computePricePence(m) for m from howMany down to
+     * howMany - units + 1. For a PhysicalItem, whose price does not depend
+     * on the stock, this is units times the price; subclasses that override
+     * computePricePence(int) override this method as well with an
+     * equivalent closed form.
+     *
+     * @param howMany  the number of units in stock before the sale
+     * @param units  the number of units sold; between 1 and howMany
+     * @return the total price in pence
+     * @throws ArithmeticException if the total does not fit into an int
+     */
+	protected int computeTotalPricePence(int howMany, int units) {
+		return Math.multiplyExact(units, computePricePence(howMany));
+	}
+
 	/**
      * Updates the stock level of physical items once an item has been sold. It reduces the stock by 1
      *
@@ -58,13 +207,87 @@ public class PhysicalItem extends Item {
      */
 	@Override
 	public void updateStockAfterSale() {
-		if(howMany > 0) {
-        	howMany--;
-		} else {
-			throw new OutOfStockException("Error: Item is out of stock");
+		while(true) {
+			int n = howMany;
+			if(n <= 0) {
+				throw new OutOfStockException("Error: Item is out of stock");
+			}
+			if(HOW_MANY.compareAndSet(this, n, n - 1)) {
+				return;
+			}
 		}
     }
 
+	/**
+     * Sets the number of units in stock, e.g. to the level recorded in a
+     * SalesJournal when the journal is replayed after a restart. Only counts
+     * as a raise of stock if the level goes up.
+     *
+     * @param howMany  the number of units in stock; must not be negative
+     */
+	void restoreStock(int howMany) {
+		if(howMany < 0) {
+			throw new IllegalArgumentException("Expected howMany >= 0; found " + howMany);
+		}
+		if(HOW_MANY.getAndSet(this, howMany) < howMany) {
+			raised();
+		}
+	}
+
+	/**
+     * Puts units back into stock, e.g. those a Basket has taken for some of
+     * its lines before it found that another line had changed meanwhile.
+     *
+     * @param units  the number of units; must be greater than 0
+     * @throws ArithmeticException if the stock would not fit into an int
+     */
+	void restock(int units) {
+		if(units <= 0) {
+			throw new IllegalArgumentException("Expected units > 0; found " + units);
+		}
+		while(true) {
+			int n = howMany;
+			if(HOW_MANY.compareAndSet(this, n, Math.addExact(n, units))) {
+				raised();
+				return;
+			}
+		}
+	}
+
+	/**
+     * Counts a raise of the stock of this Item, after the stock has gone
+     * up, and remembers this Item as the one raised.
+     */
+	private void raised() {
+		long n = STOCK_RAISES.getAndIncrement();
+		RAISED.set((int) (n & (RECENT_RAISES - 1)), new Raise(n, this));
+	}
+
+	/**
+     * Returns the number of times the stock of any PhysicalItem has been
+     * raised (by restoreStock or restock) so far. The stock of no
+     * PhysicalItem has gone up while this number stays the same. Raises are
+     * numbered from 0 in this order.
+     *
+     * @return the number of raises of stock so far
+     */
+	static long stockRaises() {
+		return STOCK_RAISES.get();
+	}
+
+	/**
+     * Returns the PhysicalItem whose stock was raised by raise number n, if
+     * that raise is one of the RECENT_RAISES most recent ones.
+     *
+     * @param n  the number of the raise; less than stockRaises()
+     * @return the Item raised; null if raise n is no longer remembered (or
+     *  its Item is just being recorded)
+     */
+	static PhysicalItem raisedItem(long n) {
+		Raise raise = RAISED.get((int) (n & (RECENT_RAISES - 1)));
+		return raise != null && raise.number == n ? raise.item : null;
+	}
+
     @Override
     public String toString() {
         return super.toString() + "\nUnits left: " + getHowMany();
@@ -0,0 +1,583 @@
+/**
+ * A SalesJournal sells Items of a Catalogue and records every sale in a
+ * log on disk, so that the stock levels survive a restart and there is an
+ * audit trail of all sales.
+ *
+ * Every sale is one record of RECORD_BYTES bytes: its sequence number,
+ * the time in milliseconds since the epoch, the id of the Item in the
+ * Catalogue, the number of units sold and their total price, the number
+ * of units left after the sale (-1 for Items with an unlimited supply) and
+ * a check value, which tells records that were not written completely
+ * from whole ones. The sequence number of a sale is taken together with
+ * the sale, under one of the striped ordering locks of the SalesJournal,
+ * chosen by the id of the Item, so the records of one Item are numbered
+ * in the order its stock changed. The locks order only the journaled
+ * sales; Items themselves are sold by compare-and-set as always. Ids are
+ * dense, so Items only share a lock if their ids differ by a multiple of
+ * ORDER_STRIPES. The records are appended to segment files of a fixed
+ * size, which are memory-mapped, so appending a record is a few stores to
+ * memory; when a segment is full, the next one is begun.
+ *
+ * A record in a mapped file survives a crash of the JVM, but not one of
+ * the machine until it has been forced to the disk. sellOne(id) returns
+ * only once its record has been forced. Forcing is group-committed: while
+ * one thread forces the segments, all threads that arrive wait for the
+ * next force, which then covers all of their records at once, so the
+ * number of forces does not limit the number of sales. sellOne(id, false)
+ * does not wait, and sync() forces everything recorded so far.
+ *
+ * When a SalesJournal is opened on a directory with segments, it first
+ * replays them: every PhysicalItem (or JPod, ...) that was sold gets the
+ * stock level of the record with the greatest sequence number for it,
+ * i.e. its level after the last sale, whatever happened to the stock in
+ * between. New records go to a new segment, and their sequence numbers
+ * continue after the greatest one replayed.
+ *
+ * A Basket of Items of the Catalogue is checked out with checkout(basket),
+ * which takes the ordering locks of all its Items in ascending order and
+ * records one record per line. As a Basket puts units back when its
+ * checkout has to start over, every sale of an Item whose sales are
+ * journaled must go through the SalesJournal, or the stock level of a
+ * record may include units that were put back later.
+ *
+ * A SalesJournal is safe for use by several threads at the same time, as
+ * long as no Items are added to the Catalogue meanwhile. It does not
+ * update the in-stock bitmap of the Catalogue after a sale, which is not
+ * safe for threads; the Catalogue corrects stale bits itself.
+ *
+ * @author
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SalesJournal implements Closeable {
+
+	/** The size of one record in bytes. */
+	public static final int RECORD_BYTES = 40;
+
+	/** The default number of records per segment (80 MB). */
+	public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 21;
+
+	/** The number of striped ordering locks; a power of 2. */
+	static final int ORDER_STRIPES = 1024;
+
+	/** The start and end of the names of segment files, around the segment number. */
+	private static final String PREFIX = "sales-", SUFFIX = ".journal";
+
+	/** Where the segments are. */
+	private final Path directory;
+
+	/** The Items that are sold. */
+	private final Catalogue catalogue;
+
+	/** The number of records per segment. */
+	private final int recordsPerSegment;
+
+	/** The number of the first segment of this SalesJournal. */
+	private final long firstSegment;
+
+	/** The number of records replayed when this SalesJournal was opened. */
+	private final long replayed;
+
+	/** The sequence number of the first record of this SalesJournal; record n has firstSequence + n. */
+	private final long firstSequence;
+
+	/** The number of records reserved so far; record n goes to segment firstSegment + n / recordsPerSegment. */
+	private final AtomicLong next = new AtomicLong();
+
+	/** The segment that was begun last. */
+	private volatile Segment current;
+
+	/** The segments that may have records not yet forced, in order. Guarded by lock. */
+	private final List<Segment> unforced = new ArrayList<>();
+
+	/** The ordering locks; a sale of the Item with id i and its sequence number are taken under lock i % ORDER_STRIPES. */
+	private final ReentrantLock[] orderLocks = new ReentrantLock[ORDER_STRIPES];
+
+	/** Guards unforced and the numbers of forces. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled whenever a force has finished. */
+	private final Condition forced = this.lock.newCondition();
+
+	/** The number of forces begun and finished. Guarded by lock. */
+	private long forcesBegun, forcesFinished;
+
+	/** Why a force failed; null if none has. Once set, the records on disk are uncertain. Guarded by lock. */
+	private IOException failure;
+
+	/** Whether close() has been called. */
+	private volatile boolean closed;
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+
+		/** The number of the segment. */
+		final long number;
+
+		/** The file of the segment. */
+		final FileChannel channel;
+
+		/** The mapped contents of the file. */
+		final MappedByteBuffer buffer;
+
+		/** The number of records completely written. */
+		final AtomicInteger written = new AtomicInteger();
+
+        Segment(long number, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Constructs a new SalesJournal, after the replay.
+     */
+    private SalesJournal(Path directory, Catalogue catalogue, int recordsPerSegment,
+            long firstSegment, long replayed, long firstSequence) {
+        this.directory = directory;
+        this.catalogue = catalogue;
+        this.recordsPerSegment = recordsPerSegment;
+        this.firstSegment = firstSegment;
+        this.replayed = replayed;
+        this.firstSequence = firstSequence;
+        for (int i = 0; i < ORDER_STRIPES; i++) {
+            this.orderLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Opens a SalesJournal with DEFAULT_RECORDS_PER_SEGMENT records per
+     * segment, replaying the segments in directory onto catalogue.
+     *
+     * @param directory  where the segments are and go; must not be null
+     * @param catalogue  the Items that are sold; must not be null, and
+     *  must have the same Items with the same ids as when the segments
+     *  were written
+     * @return the SalesJournal
+     * @throws IOException  if a segment cannot be read or created
+     */
+    public static SalesJournal open(Path directory, Catalogue catalogue) throws IOException {
+        return open(directory, catalogue, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    /**
+     * Opens a SalesJournal, replaying the segments in directory onto
+     * catalogue.
+     *
+     * @param directory  where the segments are and go; must not be null
+     * @param catalogue  the Items that are sold; must not be null, and
+     *  must have the same Items with the same ids as when the segments
+     *  were written
+     * @param recordsPerSegment  the number of records per new segment;
+     *  must be greater than 0 and at most Integer.MAX_VALUE / RECORD_BYTES
+     * @return the SalesJournal
+     * @throws IOException  if a segment cannot be read or created
+     */
+    public static SalesJournal open(Path directory, Catalogue catalogue, int recordsPerSegment)
+            throws IOException {
+        if (directory == null || catalogue == null) {
+            throw new IllegalArgumentException("Directory and catalogue must not be null!");
+        }
+        if (recordsPerSegment <= 0 || recordsPerSegment > Integer.MAX_VALUE / RECORD_BYTES) {
+            throw new IllegalArgumentException("Expected 0 < recordsPerSegment <= "
+                    + Integer.MAX_VALUE / RECORD_BYTES + "; found " + recordsPerSegment);
+        }
+        Files.createDirectories(directory);
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        numbers.sort(null);
+
+        long[] lastSequence = new long[catalogue.size() + 1]; // per id, and the greatest of all at the end
+        Arrays.fill(lastSequence, -1);
+        int[] lastStock = new int[catalogue.size()]; // the stock level of the record with lastSequence[id]
+        long replayed = 0;
+        for (long number : numbers) {
+            replayed += replay(directory.resolve(fileName(number)), lastSequence, lastStock);
+        }
+        for (int id = 0; id < lastStock.length; id++) {
+            if (lastSequence[id] >= 0 && catalogue.get(id) instanceof PhysicalItem) {
+                ((PhysicalItem) catalogue.get(id)).restoreStock(lastStock[id]);
+                catalogue.refreshStock(id);
+            }
+        }
+
+        long firstSegment = numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1) + 1;
+        SalesJournal journal = new SalesJournal(directory, catalogue, recordsPerSegment, firstSegment, replayed,
+                lastSequence[lastStock.length] + 1);
+        journal.current = journal.begin(firstSegment);
+        journal.unforced.add(journal.current);
+        return journal;
+    }
+
+    /* Modifiers */
+
+    /**
+     * Sells one unit of the Item with the given id, as Catalogue.sellOne,
+     * and returns once the sale has been recorded and forced to the disk.
+     *
+     * @param id  the id of the Item in the Catalogue
+     * @return the price at which the Item was sold
+     * @throws IOException  if the record cannot be written
+     */
+    public int sellOne(int id) throws IOException {
+        return this.sellOne(id, true);
+    }
+
+    /**
+     * Sells one unit of the Item with the given id, as Catalogue.sellOne,
+     * and records the sale. Nothing is recorded if the Item is out of stock.
+     *
+     * @param id  the id of the Item in the Catalogue
+     * @param waitForDisk  whether to return only once the record has been
+     *  forced to the disk; otherwise sync() does that later
+     * @return the price at which the Item was sold
+     * @throws IOException  if the record cannot be written
+     */
+    public int sellOne(int id, boolean waitForDisk) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("SalesJournal is closed");
+        }
+        Item item = this.catalogue.get(id);
+        long sale;
+        long n;
+        ReentrantLock orderLock = this.orderLocks[id & (ORDER_STRIPES - 1)];
+        orderLock.lock();
+        try {
+            sale = item.sellOneReportingStock();
+            n = this.next.getAndIncrement(); // in the order of the sales of item
+        } finally {
+            orderLock.unlock();
+        }
+        int price = (int) (sale >>> 32);
+        this.append(n, System.currentTimeMillis(), id, 1, price, (int) sale);
+        if (waitForDisk) {
+            this.sync();
+        }
+        return price;
+    }
+
+    /**
+     * Checks out a Basket of Items of the Catalogue, as Basket.checkout(),
+     * and returns once a record for every line has been forced to the disk.
+     *
+     * @param basket  the Basket; all its Items must be in the Catalogue
+     * @return the total price in pence of all units sold
+     * @throws IOException  if a record cannot be written
+     */
+    public int checkout(Basket basket) throws IOException {
+        return this.checkout(basket, true);
+    }
+
+    /**
+     * Checks out a Basket of Items of the Catalogue, as Basket.checkout(),
+     * and records one record per line. Nothing is recorded if the Basket
+     * cannot be checked out.
+     *
+     * @param basket  the Basket; all its Items must be in the Catalogue
+     * @param waitForDisk  whether to return only once the records have been
+     *  forced to the disk; otherwise sync() does that later
+     * @return the total price in pence of all units sold
+     * @throws IOException  if a record cannot be written
+     */
+    public int checkout(Basket basket, boolean waitForDisk) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("SalesJournal is closed");
+        }
+        int lines = basket.size();
+        int[] ids = new int[lines];
+        for (int line = 0; line < lines; line++) {
+            ids[line] = this.catalogue.idOf(basket.itemAt(line)); // before anything is sold
+        }
+        long[] numbers = new long[lines];
+        int[] units = new int[lines];
+        int[] prices = new int[lines];
+        int[] stocksAfter = new int[lines];
+        int[] stripes = stripes(ids);
+        for (int stripe : stripes) {
+            this.orderLocks[stripe].lock();
+        }
+        int total;
+        try {
+            total = basket.checkout((line, item, u, price, stockAfter) -> {
+                numbers[line] = this.next.getAndIncrement(); // under the ordering locks, in the order of the sales
+                units[line] = u;
+                prices[line] = price;
+                stocksAfter[line] = stockAfter;
+            });
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                this.orderLocks[stripes[i]].unlock();
+            }
+        }
+        long millis = System.currentTimeMillis();
+        for (int line = 0; line < lines; line++) {
+            this.append(numbers[line], millis, ids[line], units[line], prices[line], stocksAfter[line]);
+        }
+        if (waitForDisk) {
+            this.sync();
+        }
+        return total;
+    }
+
+    /**
+     * Forces all records written so far to the disk. If another thread is
+     * forcing already, waits for the next force, which this thread or
+     * another one begins once that has finished, and which covers the
+     * records of all threads that waited for it.
+     *
+     * @throws IOException  if forcing fails, now or before
+     */
+    public void sync() throws IOException {
+        this.lock.lock();
+        try {
+            long needed = this.forcesBegun + 1; // the next force begins after all my records were written
+            while (this.forcesFinished < needed && this.failure == null) {
+                if (this.forcesBegun == this.forcesFinished) {
+                    this.forcesBegun++;
+                    try {
+                        this.forceUnforced();
+                    } catch (IOException e) {
+                        this.failure = e;
+                    } finally {
+                        this.forcesFinished++;
+                        this.forced.signalAll();
+                    }
+                } else {
+                    this.forced.awaitUninterruptibly();
+                }
+            }
+            if (this.failure != null) {
+                throw new IOException("Sales journal could not be forced to disk", this.failure);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Forces all records to the disk and closes the segment files. Calling
+     * close() again has no effect.
+     *
+     * @throws IOException  if forcing or closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.sync();
+        this.lock.lock();
+        try {
+            for (Segment segment : this.unforced) {
+                segment.channel.close();
+            }
+            this.unforced.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of records replayed when this SalesJournal was opened
+     */
+    public long replayedSales() {
+        return this.replayed;
+    }
+
+    /**
+     * @return the number of sales recorded since this SalesJournal was opened
+     */
+    public long recordedSales() {
+        return this.next.get();
+    }
+
+    /* Helpers */
+
+    /**
+     * Writes one record into slot n, which has been reserved from next.
+     */
+    private void append(long n, long millis, int id, int units, int price, int stockAfter) throws IOException {
+        long sequence = this.firstSequence + n;
+        long number = this.firstSegment + n / this.recordsPerSegment;
+        Segment segment = this.current;
+        if (segment.number != number) {
+            segment = this.segment(number);
+        }
+        int offset = (int) (n % this.recordsPerSegment) * RECORD_BYTES;
+        ByteBuffer buffer = segment.buffer;
+        buffer.putLong(offset, sequence);
+        buffer.putLong(offset + 8, millis);
+        buffer.putInt(offset + 16, id);
+        buffer.putInt(offset + 20, units);
+        buffer.putInt(offset + 24, price);
+        buffer.putInt(offset + 28, stockAfter);
+        buffer.putLong(offset + 32, check(sequence, millis, id, units, price, stockAfter)); // last, so a torn record fails the check
+        segment.written.incrementAndGet();
+    }
+
+    /**
+     * Returns the segment with the given number, beginning it (and any
+     * segments before it) if that has not been done yet.
+     */
+    private Segment segment(long number) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.current.number < number) {
+                Segment segment = this.begin(this.current.number + 1);
+                this.unforced.add(segment);
+                this.current = segment;
+            }
+            for (Segment segment : this.unforced) { // a writer that fell behind a roll
+                if (segment.number == number) {
+                    return segment;
+                }
+            }
+            throw new IllegalStateException("Segment " + number + " is no longer open");
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Creates and maps the file of a new segment.
+     */
+    private Segment begin(long number) throws IOException {
+        FileChannel channel = FileChannel.open(this.directory.resolve(fileName(number)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = (long) this.recordsPerSegment * RECORD_BYTES;
+        return new Segment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Forces all segments that may have records not yet forced, and then
+     * forgets those that were full before. Called with lock held; releases
+     * it while forcing.
+     */
+    private void forceUnforced() throws IOException {
+        List<Segment> segments = new ArrayList<>(this.unforced);
+        List<Segment> full = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.written.get() == this.recordsPerSegment) {
+                full.add(segment);
+            }
+        }
+        this.lock.unlock();
+        try {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+        } finally {
+            this.lock.lock();
+        }
+        for (Segment segment : full) {
+            if (segment != this.current) {
+                this.unforced.remove(segment);
+                segment.channel.close(); // the mapping stays valid until it is collected
+            }
+        }
+    }
+
+    /**
+     * Replays the complete records of one segment file: for every id whose
+     * record has a greater sequence number than lastSequence[id], sets
+     * lastSequence[id] to it and lastStock[id] to its stock level. The last
+     * entry of lastSequence becomes the greatest sequence number of all.
+     *
+     * @return the number of complete records
+     */
+    private static long replay(Path file, long[] lastSequence, int[] lastStock) throws IOException {
+        int items = lastStock.length;
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (int offset = 0; offset + RECORD_BYTES <= buffer.limit(); offset += RECORD_BYTES) {
+                long sequence = buffer.getLong(offset);
+                long millis = buffer.getLong(offset + 8);
+                int id = buffer.getInt(offset + 16);
+                int units = buffer.getInt(offset + 20);
+                int price = buffer.getInt(offset + 24);
+                int stockAfter = buffer.getInt(offset + 28);
+                if (buffer.getLong(offset + 32) != check(sequence, millis, id, units, price, stockAfter)) {
+                    continue; // never written (all zero) or torn by a crash
+                }
+                if (id < 0 || id >= items) {
+                    throw new IllegalStateException("Journal " + file + " records a sale of item " + id
+                            + ", but the catalogue has " + items + " items");
+                }
+                if (sequence > lastSequence[id]) { // records of different threads may be out of order
+                    lastSequence[id] = sequence;
+                    lastStock[id] = stockAfter;
+                }
+                lastSequence[items] = Math.max(lastSequence[items], sequence);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the check value of a record, which is never 0, so that
+     * slots never written fail the check.
+     */
+    private static long check(long sequence, long millis, int id, int units, int price, int stockAfter) {
+        long h = sequence * 0x9e3779b97f4a7c15L ^ millis;
+        h = (h ^ (((long) id << 32) | (units & 0xffffffffL))) * 0xff51afd7ed558ccdL;
+        h = (h ^ (((long) price << 32) | (stockAfter & 0xffffffffL))) * 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h | 1;
+    }
+
+    /**
+     * Returns the ordering lock stripes of the given ids, each once, in
+     * ascending order, which is the order in which they are locked, so
+     * that two checkouts never wait for each other in a cycle.
+     */
+    private static int[] stripes(int[] ids) {
+        int[] stripes = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            stripes[i] = ids[i] & (ORDER_STRIPES - 1);
+        }
+        Arrays.sort(stripes);
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (count == 0 || stripes[count - 1] != stripes[i]) {
+                stripes[count++] = stripes[i];
+            }
+        }
+        return Arrays.copyOf(stripes, count);
+    }
+
+    /**
+     * Returns the name of the file of a segment; numbers are padded so that
+     * the names sort like the numbers.
+     */
+    private static String fileName(long number) {
+        return String.format("%s%012d%s", PREFIX, number, SUFFIX);
+    }
+}
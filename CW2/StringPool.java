@@ -0,0 +1,109 @@
+/**
+ * A StringPool keeps one canonical instance of every String it is given,
+ * like String.intern(), so that Items read from feeds, where the same
+ * names and ISBNs come again and again as separate Strings, share one
+ * String per distinct value. The pool refers to its Strings only weakly:
+ * a String that no Item uses any more is collected as usual and drops out
+ * of the pool.
+ *
+ * Interning is opt-in, for bulk loads with many repeated values: code
+ * that reads a feed passes StringPool.intern(name) to the constructors of
+ * the Items, and a DataItemStore interns if it is constructed to.
+ *
+ * The constructors of Item, PrintBook and EBook deliberately do not
+ * intern their names and ISBNs. Interning a feed in which every title
+ * repeats 20 times costs 0.6 to 1 microseconds more per PrintBook than
+ * not interning (see benchmark-baseline.txt), which comes from the design
+ * of this pool: every call takes the lock of a stripe, and every new
+ * entry is a WeakHashMap entry plus a WeakReference to the value, i.e.
+ * two weak references that the collector has to process, and about 80
+ * bytes. Where titles repeat 2000 times, few entries are made and the
+ * cost falls to about 0.1 microseconds. That only pays off where values
+ * repeat many times, and the constructors cannot tell.
+ *
+ * The pool is split into a number of stripes by hash code, each a
+ * WeakHashMap with its own lock, so threads that load Items at the same
+ * time rarely wait for each other.
+ *
+ * The pool does not need its own compact storage: since Java 9, every
+ * String whose chars are all Latin-1 (as names and ISBNs mostly are)
+ * keeps one byte per char already.
+ *
+ * @author
+ */
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+public final class StringPool {
+
+	/** The number of stripes; a power of 2. */
+	private static final int STRIPES = 64;
+
+	/**
+	 * The stripes. Each maps a String to a weak reference to its canonical
+	 * instance; the key itself is referenced weakly by the map, and is the
+	 * canonical instance, so nothing keeps a String alive but its users.
+	 */
+	private static final Stripe[] POOL = new Stripe[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			POOL[i] = new Stripe();
+		}
+	}
+
+    /**
+     * One stripe of the pool; also its lock.
+     */
+    private static final class Stripe extends WeakHashMap<String, WeakReference<String>> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * There are no instances of StringPool.
+     */
+    private StringPool() {
+    }
+
+    /**
+     * Returns the canonical instance of a String: s itself if the pool has
+     * no String equal to s yet (s then becomes the canonical instance),
+     * and otherwise the String equal to s that the pool has.
+     *
+     * @param s  the String; may be null
+     * @return the canonical String equal to s; null if s is null
+     */
+    public static String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        int h = s.hashCode();
+        Stripe stripe = POOL[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            WeakReference<String> ref = stripe.get(s);
+            String canonical = ref == null ? null : ref.get();
+            if (canonical == null) {
+                stripe.put(s, new WeakReference<>(s));
+                canonical = s;
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * Returns the number of Strings in the pool. Strings that are no
+     * longer used may be counted until the pool notices that they have
+     * been collected.
+     *
+     * @return the number of Strings in the pool
+     */
+    public static int size() {
+        int size = 0;
+        for (Stripe stripe : POOL) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+}
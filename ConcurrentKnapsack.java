@@ -0,0 +1,338 @@
+/**
+ * A ConcurrentKnapsack is a Knapsack that many threads can add Items to at
+ * the same time. The Items are kept in a number of stripes, each with its
+ * own lock, list of items, total weight, count and greatest item. A thread
+ * adds to the stripe chosen by its id and moves on to the next stripe if
+ * that one is busy, so producers rarely wait for each other, and the
+ * per-stripe totals act as a striped accumulator for the weight.
+ *
+ * Queries (numberOfItems, totalWeightInGrammes, averageWeightInGrammes,
+ * greatestItem) and the modifiers that remove Items (reset,
+ * keepOnlyItemsWith) lock all stripes, always in the same order, so they
+ * see a consistent state: no add is half done, and the count, the weight
+ * and the greatest item all belong to the same set of Items. Queries only
+ * combine the per-stripe totals and do not visit the Items.
+ *
+ * Unlike a Knapsack, a ConcurrentKnapsack does not keep the order in which
+ * the Items were added across threads; greatestItem returns one of several
+ * equal greatest Items.
+ *
+ *
+ */
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ConcurrentKnapsack {
+
+	/** The stripes; the length is a power of 2. */
+	private final Stripe[] stripes;
+
+    /* Constructors */
+
+    /**
+     * Constructs a new ConcurrentKnapsack without any Items, with a stripe
+     * for about every available processor.
+     */
+    public ConcurrentKnapsack() {
+		this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new ConcurrentKnapsack without any Items.
+     *
+     * @param concurrencyLevel the expected number of threads adding at the
+     *  same time; must be greater than 0
+     */
+    public ConcurrentKnapsack(int concurrencyLevel) {
+		if(concurrencyLevel < 1) {
+			throw new IllegalArgumentException("Expected concurrencyLevel > 0; found " + concurrencyLevel);
+		}
+		int n = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1); // next power of 2
+		this.stripes = new Stripe[n];
+		for(int i = 0; i < n; i++) {
+			this.stripes[i] = new Stripe();
+		}
+    }
+
+    /* Modifiers */
+
+    /**
+     * Adds an Item e to this ConcurrentKnapsack if e is not null; does not
+     * modify it otherwise. May be called by many threads at the same time.
+     *
+     * @param e an item to be added to this ConcurrentKnapsack
+     * @return true if e is not null, false otherwise
+     */
+    public boolean add(Item e) {
+		if(e == null) {
+			return false;
+		}
+		Stripe stripe = this.lockStripe();
+		try {
+			stripe.add(e);
+		} finally {
+			stripe.lock.unlock();
+		}
+		return true;
+    }
+
+    /**
+     * Adds all non-null Items in items to this ConcurrentKnapsack. The Items
+     * are added to a single stripe under one lock. May be called by many
+     * threads at the same time.
+     *
+     * @param items contains the Item objects to be added; must not be null
+     *  (but may contain null)
+     * @return true if at least one element of items is non-null;
+     *  false otherwise
+     */
+    public boolean addAll(Item[] items) {
+		if(items == null) {
+			return false;
+		}
+		int count = 0;
+		Stripe stripe = this.lockStripe();
+		try {
+			stripe.items.ensureCapacity(stripe.items.size() + items.length);
+			for(Item x: items) {
+				if(x != null) {
+					stripe.add(x);
+					count++;
+				}
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+		return count > 0;
+    }
+
+    /**
+     * Resets this ConcurrentKnapsack to one that contains 0 Items.
+     */
+    public void reset() {
+		this.lockAll();
+		try {
+			for(Stripe stripe: this.stripes) {
+				stripe.items.clear();
+				stripe.totalWeightInGrammes = 0;
+				stripe.greatestItem = null;
+			}
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Removes certain Items from this ConcurrentKnapsack. Exactly those Items
+     * are kept whose weight in grammes is less than or equal to the
+     * specified maximum weight in grammes.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items that are kept
+     */
+    public void keepOnlyItemsWith(int maxItemWeightInGrammes) {
+		this.lockAll();
+		try {
+			for(Stripe stripe: this.stripes) {
+				stripe.items.removeIf(x -> x.getWeightInGrammes() > maxItemWeightInGrammes);
+				stripe.totalWeightInGrammes = 0;
+				stripe.greatestItem = null;
+				for(Item x: stripe.items) {
+					stripe.count(x);
+				}
+			}
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /* Accessors */
+
+    /**
+     * Returns the number of Items in this ConcurrentKnapsack.
+     *
+     * @return the number of Items in this ConcurrentKnapsack
+     */
+    public int numberOfItems() {
+		this.lockAll();
+		try {
+			return this.countItems();
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Returns the total weight of the Items in this ConcurrentKnapsack.
+     *
+     * @return the total weight of the Items in this ConcurrentKnapsack
+     */
+    public int totalWeightInGrammes() {
+		this.lockAll();
+		try {
+			return this.sumWeights();
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Returns the average weight in grammes of the Items in this
+     * ConcurrentKnapsack; -1.0 if there is no Item. The count and the
+     * weight are read at the same time.
+     *
+     * @return the average weight of the Items in this ConcurrentKnapsack,
+     *  or -1.0 if there is no such Item
+     */
+    public double averageWeightInGrammes() {
+		this.lockAll();
+		try {
+			int count = this.countItems();
+			if(count < 1) //avoid division by zero error
+				return -1.0;
+
+			return this.sumWeights() / (double) count;
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Returns one of the greatest Items in this ConcurrentKnapsack according
+     * to the natural ordering of Item given by its compareTo method; null if
+     * it does not contain any Item objects.
+     *
+     * @return one of the greatest Items in this ConcurrentKnapsack; null if
+     *  there is none
+     */
+    public Item greatestItem() {
+		this.lockAll();
+		try {
+			Item greatest = null;
+			for(Stripe stripe: this.stripes) {
+				Item x = stripe.greatestItem;
+				if(x != null && (greatest == null || x.compareTo(greatest) > 0)) {
+					greatest = x;
+				}
+			}
+			return greatest;
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Returns a new Knapsack with the Items of this ConcurrentKnapsack at
+     * one point in time, stripe by stripe.
+     *
+     * @return a new Knapsack with the Items of this ConcurrentKnapsack
+     */
+    public Knapsack snapshot() {
+		this.lockAll();
+		try {
+			Knapsack snapshot = new Knapsack();
+			for(Stripe stripe: this.stripes) {
+				for(Item x: stripe.items) {
+					snapshot.add(x);
+				}
+			}
+			return snapshot;
+		} finally {
+			this.unlockAll();
+		}
+    }
+
+    /**
+     * Returns a string representation of this ConcurrentKnapsack in the
+     * format of Knapsack.toString.
+     *
+     * @return a String representation of this ConcurrentKnapsack
+     */
+    @Override
+    public String toString() {
+        return this.snapshot().toString();
+    }
+
+    /**
+     * Locks and returns a stripe for the current thread: the first one that
+     * is free, starting at the stripe given by the thread id, or the
+     * starting one if all are busy.
+     */
+    private Stripe lockStripe() {
+		int mask = this.stripes.length - 1;
+		long id = Thread.currentThread().getId();
+		int home = (int) (id ^ (id >>> 16)) & mask;
+		for(int i = 0; i <= mask; i++) {
+			Stripe stripe = this.stripes[(home + i) & mask];
+			if(stripe.lock.tryLock()) {
+				return stripe;
+			}
+		}
+		Stripe stripe = this.stripes[home];
+		stripe.lock.lock(); // every stripe is busy, wait for our own
+		return stripe;
+    }
+
+    /**
+     * Locks all stripes in index order, so two threads doing this cannot
+     * deadlock, and add never holds more than one.
+     */
+    private void lockAll() {
+		for(Stripe stripe: this.stripes) {
+			stripe.lock.lock();
+		}
+    }
+
+    private void unlockAll() {
+		for(int i = this.stripes.length - 1; i >= 0; i--) {
+			this.stripes[i].lock.unlock();
+		}
+    }
+
+    /** Must be called with all stripes locked. */
+    private int countItems() {
+		int count = 0;
+		for(Stripe stripe: this.stripes) {
+			count += stripe.items.size();
+		}
+		return count;
+    }
+
+    /** Must be called with all stripes locked. */
+    private int sumWeights() {
+		int weight = 0;
+		for(Stripe stripe: this.stripes) {
+			weight += stripe.totalWeightInGrammes;
+		}
+		return weight;
+    }
+
+    /**
+     * A part of the Items of a ConcurrentKnapsack with their totals. All
+     * fields are guarded by lock.
+     */
+    private static final class Stripe {
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		final ArrayList<Item> items = new ArrayList<>();
+
+		int totalWeightInGrammes;
+
+		Item greatestItem;
+
+		/** Adds e and counts it. */
+		void add(Item e) {
+			this.items.add(e);
+			this.count(e);
+		}
+
+		/** Adds e, which is in items, to the totals. */
+		void count(Item e) {
+			this.totalWeightInGrammes += e.getWeightInGrammes();
+			if(this.greatestItem == null || e.compareTo(this.greatestItem) > 0) {
+				this.greatestItem = e;
+			}
+		}
+    }
+}
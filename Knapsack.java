@@ -9,17 +9,50 @@
  *
  *
  */
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Knapsack {
 
 
+	/** Arrays of Knapsacks at least this long are searched in parallel. */
+	static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	/** Orders Knapsacks by their total weight. */
+	private static final Comparator<Knapsack> BY_WEIGHT = Comparator.comparingInt(Knapsack::totalWeightInGrammes);
+
 	/** The name of the list of items. Empty after object creation if no items are specified. */
 	private ArrayList<Item> items;
 
 	/** The total weight of the knapsack in grammes. Must be greater or equal to 0. */
 	private int totalWeightInGrammes;
 
+	/** The number of non-null items in the knapsack. Must be equal to items.size(). */
+	private int numberOfItems;
+
+	/** The items sorted by weight for threshold queries. Null until the first such query. */
+	private WeightIndex weightIndex;
+
+	/** The greatest item according to compareTo, null if there is none. Only valid if greatestItemKnown. */
+	private Item greatestItem;
+
+	/** Whether greatestItem is up to date; false after items have been removed. */
+	private boolean greatestItemKnown = true;
+
+	/** Statistics of the weights of the items. Null until they are first asked for, then kept up to date. */
+	private WeightStatistics weightStatistics;
+
     /* Constructors */
 
     /**
@@ -42,12 +75,7 @@ public class Knapsack {
     public Knapsack(Item[] items) {
 		this(); // call the first constructor to created the empty arraylist
 		if(items != null) {
-			for(Item x: items){
-				if(x != null) { // check if the item is non-null, if so then add it and increase the weight
-					this.items.add(x);
-					this.totalWeightInGrammes += x.getWeightInGrammes();
-				}
-			}
+			this.appendAll(items); // adds the non-null items and increases the weight
 		}
     }
 
@@ -62,8 +90,7 @@ public class Knapsack {
      */
     public boolean add(Item e) {
 		if(e != null) {
-			this.items.add(e);
-			this.totalWeightInGrammes += e.getWeightInGrammes();
+			this.append(e);
 			return true;
 		}
 		
@@ -80,27 +107,142 @@ public class Knapsack {
      *  false otherwise
      */
     public boolean addAll(Item[] items) {
-		int count = 0; // keep count of non-null elements
 		if(items != null) {
-			for(Item x: items){
-				if(x != null) {// add all non null items
-					this.totalWeightInGrammes += x.getWeightInGrammes();
-					this.items.add(x);
-					count++;
-				}
-			}
-			if(count > 0)
-				return true; // at least one element is non-null
+			return this.appendAll(items).anyAdded(); // at least one element is non-null
 		}
         return false;
     }
 
+    /**
+     * Adds all non-null Items in items to this Knapsack, in the order of the
+     * Collection's iterator. The storage of this Knapsack is grown once to
+     * fit all of them, and they are added straight from the iterator,
+     * without copying the Collection first. Like addAll(Item[]), this does
+     * nothing if items is null.
+     * This and the other addAllFrom... methods are not overloads of
+     * addAll(Item[]), so that existing calls like addAll(null) still
+     * compile and mean what they did.
+     *
+     * @param items contains the Item objects to be added to this Knapsack;
+     *  may be null, and may contain null
+     * @return how many Items were added, how many null references were
+     *  skipped and how much weight was added
+     */
+    public BulkAddResult addAllFromCollection(Collection<? extends Item> items) {
+		if(items == null) {
+			return new BulkAddResult(0, 0, 0);
+		}
+		this.items.ensureCapacity(this.items.size() + items.size());
+		int count = this.numberOfItems;
+		int weight = this.totalWeightInGrammes;
+		long nulls = 0;
+		for(Item x: items) {
+			if(x == null) {
+				nulls++;
+			} else {
+				this.append(x);
+			}
+		}
+        return new BulkAddResult(this.numberOfItems - count, nulls, this.totalWeightInGrammes - weight);
+    }
+
+    /**
+     * Adds all Items of another Knapsack to this Knapsack. The count, the
+     * weight, the greatest Item and (if both have them) the weight
+     * statistics of other are combined with those of this Knapsack without
+     * visiting its Items again, and the Items are copied straight from the
+     * list of other into that of this Knapsack. other may be this Knapsack,
+     * whose Items are then added a second time. Like addAll(Item[]), this
+     * does nothing if other is null.
+     *
+     * @param other the Knapsack whose Items are added; may be null, and is
+     *  not modified (unless it is this Knapsack)
+     * @return how many Items were added and how much weight was added
+     */
+    public BulkAddResult addAllFromKnapsack(Knapsack other) {
+		if(other == null) {
+			return new BulkAddResult(0, 0, 0);
+		}
+        return this.appendAll(other.items, other.numberOfItems, 0, other.totalWeightInGrammes,
+				other.greatestItem(), other.weightStatistics);
+    }
+
+    /**
+     * Adds all non-null Items of a Stream to this Knapsack, in encounter
+     * order. If the Stream is parallel, its parts are collected on the
+     * threads of the Stream together with their count, weight and greatest
+     * Item, which are then combined; the Items are
+     * added to this Knapsack by this thread only. If the Stream is
+     * sequential, its Items are added as for addAllFromSpliterator. Like
+     * addAll(Item[]), this does nothing if items is null.
+     *
+     * @param items the Items to be added; may be null, and may contain null
+     * @return how many Items were added, how many null references were
+     *  skipped and how much weight was added
+     */
+    public BulkAddResult addAllFromStream(Stream<? extends Item> items) {
+		if(items == null) {
+			return new BulkAddResult(0, 0, 0);
+		}
+		if(items.isParallel()) {
+			return this.appendAll(items.collect(Batch::new, Batch::accept, Batch::combine));
+		}
+        return this.addAllFromSpliterator(items.spliterator(), false);
+    }
+
+    /**
+     * Adds all non-null Items of a Spliterator to this Knapsack, in encounter
+     * order, straight into the storage of this Knapsack. If the Spliterator
+     * knows its size, the storage is grown once to fit all Items. If it can
+     * also be split evenly and has at least PARALLEL_THRESHOLD elements, it
+     * is collected in parallel as for addAllFromStream. Like addAll(Item[]),
+     * this does nothing if items is null.
+     *
+     * @param items the Items to be added; may be null, and may contain null
+     * @return how many Items were added, how many null references were
+     *  skipped and how much weight was added
+     */
+    public BulkAddResult addAllFromSpliterator(Spliterator<? extends Item> items) {
+		if(items == null) {
+			return new BulkAddResult(0, 0, 0);
+		}
+		boolean parallel = items.hasCharacteristics(Spliterator.SUBSIZED)
+				&& items.estimateSize() >= PARALLEL_THRESHOLD;
+        return this.addAllFromSpliterator(items, parallel);
+    }
+
+    private BulkAddResult addAllFromSpliterator(Spliterator<? extends Item> items, boolean parallel) {
+		if(parallel) {
+			return this.appendAll(StreamSupport.stream(items, true).collect(Batch::new, Batch::accept, Batch::combine));
+		}
+		long size = items.getExactSizeIfKnown();
+		if(size > 0) {
+			this.items.ensureCapacity((int) Math.min(this.items.size() + size, Integer.MAX_VALUE - 8));
+		}
+		int count = this.numberOfItems;
+		int weight = this.totalWeightInGrammes;
+		long[] nulls = new long[1];
+		items.forEachRemaining(x -> {
+			if(x == null) {
+				nulls[0]++;
+			} else {
+				this.append(x);
+			}
+		});
+        return new BulkAddResult(this.numberOfItems - count, nulls[0], this.totalWeightInGrammes - weight);
+    }
+
     /**
      * Resets this Knapsack to a Knapsack that contains 0 Items.
      */
     public void reset() {
 		this.items.clear();
 		this.totalWeightInGrammes = 0;
+		this.numberOfItems = 0;
+		this.weightIndex = null; // rebuilt on the next threshold query
+		this.greatestItem = null; // an empty knapsack has no greatest item
+		this.greatestItemKnown = true;
+		this.weightStatistics = null; // recomputed when next asked for
     }
 
     /**
@@ -126,6 +268,10 @@ public class Knapsack {
 		this.items.clear(); // clear array
 		this.items.addAll(newitems); //// replace with the new one
 		this.totalWeightInGrammes = newWeight; // update the weight
+		this.numberOfItems = newitems.size(); // update the count
+		this.weightIndex = null; // rebuilt on the next threshold query
+		this.greatestItemKnown = false; // it may have been removed, find it again when asked
+		this.weightStatistics = null; // recomputed from the kept items when next asked for
 		}
 
     }
@@ -138,12 +284,20 @@ public class Knapsack {
      * @return the number of non-null Items in this Knapsack
      */
     public int numberOfItems() {
+        return this.numberOfItems; // kept up to date by the modifiers, like the weight
+    }
+
+    /**
+     * Counts the non-null Items in this Knapsack by visiting them all, to
+     * check numberOfItems(), which is kept up to date instead.
+     *
+     * @return the number of non-null Items in the list of this Knapsack
+     */
+    int countItems() {
 		int count = 0;
-		if(items != null) {
-			for(Item x: items){
-				if(x != null) {
-					count++; // only counts non-null, return 0 by default
-				}
+		for(Item x: this.items) {
+			if(x != null) {
+				count++;
 			}
 		}
 		return count;
@@ -173,11 +327,36 @@ public class Knapsack {
      *  or -1.0 if there is no such Item.
      */
     public double averageWeightInGrammes() {
-        /** numberOfItems() returns the total non-null items */
-		if(this.numberOfItems() < 1) //avoid division by zero error
+        /** numberOfItems is the total of non-null items */
+		if(this.numberOfItems < 1) //avoid division by zero error
 			return -1.0;
 
-		return (totalWeightInGrammes / (double)this.numberOfItems()); //cast to double
+		return (totalWeightInGrammes / (double)this.numberOfItems); //cast to double
+    }
+
+    /**
+     * Returns statistics of the weights of the Items in this Knapsack:
+     * minimum, maximum, variance, percentiles and a histogram, besides the
+     * count, total and average that the other accessors provide. They are
+     * computed from the Items on the first call (and the first call after
+     * Items were removed), and from then on kept up to date as Items are
+     * added, so later calls take constant time; Knapsacks whose statistics
+     * are never asked for do not pay for them. The result is a copy that
+     * is not affected by later changes to this Knapsack, and that can be
+     * merged with the statistics of other Knapsacks.
+     *
+     * @return statistics of the weights of the Items in this Knapsack
+     * @see WeightStatistics
+     */
+    public WeightStatistics weightStatistics() {
+		if(this.weightStatistics == null) {
+			WeightStatistics statistics = new WeightStatistics();
+			for(Item x: this.items) {
+				statistics.add(x.getWeightInGrammes());
+			}
+			this.weightStatistics = statistics;
+		}
+        return new WeightStatistics(this.weightStatistics);
     }
 
     /**
@@ -190,7 +369,10 @@ public class Knapsack {
      *  null if this Knapsack does not contain any Item objects
      */
     public Item greatestItem() {
-		if(this.items == null || this.numberOfItems() < 1) // check if there is a non-null item
+		if(this.greatestItemKnown) // kept up to date by add and addAll
+			return this.greatestItem;
+
+		if(this.items == null || this.numberOfItems < 1) // check if there is a non-null item
 			return null;
 
 		Item greatest; // 
@@ -206,10 +388,37 @@ public class Knapsack {
 				}
 			}
 		}
+		this.greatestItem = greatest; // remember it until items are removed again
+		this.greatestItemKnown = true;
         return greatest;
 
     }
 
+    /**
+     * Returns the k greatest Items in this Knapsack according to the
+     * natural ordering of Item given by its compareTo method, greatest
+     * first. Of two equal Items, the one that was added first comes first,
+     * so greatestItems(1) contains exactly greatestItem(). If this Knapsack
+     * contains fewer than k Items, all of them are returned.
+     *
+     * Uses a heap of at most k Items instead of sorting all Items, so it
+     * takes O(n log k) time and O(k) extra memory.
+     *
+     * @param k the number of Items to return; must not be less than 0
+     * @return a new array with the k greatest Items in this Knapsack,
+     *  greatest first
+     */
+    public Item[] greatestItems(int k) {
+		if(k < 0) {
+			throw new IllegalArgumentException("Expected k >= 0; found " + k);
+		}
+		BoundedHeap<Item> greatest = new BoundedHeap<>(Math.min(k, this.numberOfItems), Item::compareTo);
+		for(int i = 0; i < this.items.size(); i++) {
+			greatest.offer(this.items.get(i), i);
+		}
+        return greatest.toSortedArray(new Item[0]);
+    }
+
     /**
      * Returns a new Knapsack with exactly those Items of this Knapsack
      * whose weight is less than or equal to the specified method parameter.
@@ -230,6 +439,357 @@ public class Knapsack {
         return newKnapsack;
     }
 
+    /**
+     * Returns a read-only view of the Items of this Knapsack that can be
+     * filtered without copying, e.g.
+     *   view().withMaxItemWeight(500).totalWeightInGrammes()
+     * has the same result as makeNewKnapsackWith(500).totalWeightInGrammes()
+     * but does not create a new Knapsack. The view reflects later changes to
+     * this Knapsack.
+     *
+     * @return a view of all Items of this Knapsack
+     * @see KnapsackView
+     */
+    public KnapsackView view() {
+        return new KnapsackView(this.items);
+    }
+
+    /**
+     * Returns the number of Items in this Knapsack whose weight is less than
+     * or equal to the specified method parameter. Does not modify this
+     * Knapsack.
+     *
+     * The first call builds an index of the Items sorted by weight (which
+     * takes O(n log n) time); later calls take O(log n) time, and Items
+     * added in the meantime are merged into the index on the next call.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items that are counted
+     * @return the number of Items of this Knapsack whose weight is less than
+     *  or equal to the specified method parameter
+     */
+    public int countWithWeightAtMost(int maxItemWeightInGrammes) {
+        return this.weightIndex().countWithWeightAtMost(maxItemWeightInGrammes);
+    }
+
+    /**
+     * Returns the total weight of the Items in this Knapsack whose weight is
+     * less than or equal to the specified method parameter, i.e. the
+     * totalWeightInGrammes() of makeNewKnapsackWith(maxItemWeightInGrammes),
+     * without creating the new Knapsack. Does not modify this Knapsack.
+     * Uses the same index as countWithWeightAtMost.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items that are summed up
+     * @return the total weight of the Items of this Knapsack whose weight is
+     *  less than or equal to the specified method parameter
+     */
+    public int totalWeightAtMost(int maxItemWeightInGrammes) {
+        return this.weightIndex().totalWeightAtMost(maxItemWeightInGrammes);
+    }
+
+    /**
+     * Returns a new Knapsack with exactly those Items of this Knapsack whose
+     * weight is greater than or equal to minItemWeightInGrammes and less
+     * than or equal to maxItemWeightInGrammes, lightest first. Does not
+     * modify this Knapsack. Uses the same index as countWithWeightAtMost,
+     * so only the Items in the range are visited.
+     *
+     * @param minItemWeightInGrammes the minimum weight in grammes for the
+     *  Items in the new Knapsack
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items in the new Knapsack
+     * @return a new Knapsack with exactly those Items of this Knapsack whose
+     *  weight lies in the specified range; empty if minItemWeightInGrammes
+     *  is greater than maxItemWeightInGrammes
+     */
+    public Knapsack itemsWithWeightBetween(int minItemWeightInGrammes, int maxItemWeightInGrammes) {
+        return new Knapsack(this.weightIndex().itemsWithWeightBetween(minItemWeightInGrammes,
+                maxItemWeightInGrammes));
+    }
+
+    /**
+     * Adds the non-null item e to the list and updates everything that is
+     * kept up to date incrementally.
+     */
+    private void append(Item e) {
+		this.items.add(e);
+		this.totalWeightInGrammes += e.getWeightInGrammes();
+		this.numberOfItems++;
+		this.track(e);
+    }
+
+    /**
+     * Adds the non-null elements of source, which must all be Items, growing
+     * the list only once and summing up their weights in the same loop.
+     */
+    private BulkAddResult appendAll(Object[] source) {
+		this.items.ensureCapacity(this.items.size() + source.length);
+		int added = 0;
+		int weight = 0;
+		for(Object o: source) {
+			if(o != null) {
+				Item x = (Item) o;
+				this.items.add(x);
+				weight += x.getWeightInGrammes();
+				added++;
+				this.track(x);
+			}
+		}
+		this.totalWeightInGrammes += weight;
+		this.numberOfItems += added;
+		return new BulkAddResult(added, source.length - added, weight);
+    }
+
+    /**
+     * Adds the items of a batch, whose totals have already been computed.
+     */
+    private BulkAddResult appendAll(Batch batch) {
+		return this.appendAll(Arrays.asList(batch.items), batch.count, batch.nulls, batch.totalWeightInGrammes,
+				batch.greatestItem, null);
+    }
+
+    /**
+     * Adds the first count items of source, which are not null and whose
+     * total weight and greatest item (and weight statistics, if not null)
+     * have already been computed, copying them one by one into the list.
+     * source may be the list itself.
+     */
+    private BulkAddResult appendAll(List<Item> source, int count, long nulls, int weight, Item greatest,
+			WeightStatistics statistics) {
+		if(count == 0) {
+			return new BulkAddResult(0, nulls, 0);
+		}
+		this.items.ensureCapacity(this.items.size() + count);
+		for(int i = 0; i < count; i++) {
+			this.items.add(source.get(i));
+		}
+		if(this.weightIndex != null) {
+			for(int i = 0; i < count; i++) {
+				this.weightIndex.append(source.get(i));
+			}
+		}
+		if(this.weightStatistics != null) {
+			if(statistics != null) {
+				this.weightStatistics.merge(statistics);
+			} else {
+				for(int i = 0; i < count; i++) {
+					this.weightStatistics.add(source.get(i).getWeightInGrammes());
+				}
+			}
+		}
+		this.totalWeightInGrammes += weight;
+		this.numberOfItems += count;
+		if(this.greatestItemKnown && (this.greatestItem == null || greatest.compareTo(this.greatestItem) > 0)) {
+			this.greatestItem = greatest;
+		}
+		return new BulkAddResult(count, nulls, weight);
+    }
+
+    /**
+     * Updates the weight index, the greatest item and the weight statistics,
+     * if there are any, after the non-null item e has been added to the list.
+     */
+    private void track(Item e) {
+		if(this.weightIndex != null) {
+			this.weightIndex.append(e); // keep the index in step with the list
+		}
+		if(this.greatestItemKnown && (this.greatestItem == null || e.compareTo(this.greatestItem) > 0)) {
+			this.greatestItem = e; // strictly greater, so the first of equal items stays
+		}
+		if(this.weightStatistics != null) {
+			this.weightStatistics.add(e.getWeightInGrammes());
+		}
+    }
+
+    /**
+     * Items collected for a bulk add in parallel, together with their count,
+     * weight and greatest item, so that batches collected by different
+     * threads can be combined before they are added.
+     */
+    private static final class Batch {
+
+		Item[] items;
+		int count;
+		long nulls;
+		int totalWeightInGrammes;
+		Item greatestItem;
+
+		Batch() {
+			this.items = new Item[16];
+		}
+
+		void accept(Item x) {
+			if(x == null) {
+				this.nulls++;
+				return;
+			}
+			if(this.count == this.items.length) {
+				this.items = Arrays.copyOf(this.items, Math.max(16, this.count * 2));
+			}
+			this.items[this.count++] = x;
+			this.totalWeightInGrammes += x.getWeightInGrammes();
+			if(this.greatestItem == null || x.compareTo(this.greatestItem) > 0) {
+				this.greatestItem = x;
+			}
+		}
+
+		/** Appends the batch that follows this one in encounter order. */
+		void combine(Batch next) {
+			if(this.items.length < this.count + next.count) {
+				this.items = Arrays.copyOf(this.items, this.count + next.count);
+			}
+			System.arraycopy(next.items, 0, this.items, this.count, next.count);
+			this.count += next.count;
+			this.nulls += next.nulls;
+			this.totalWeightInGrammes += next.totalWeightInGrammes;
+			if(this.greatestItem == null || (next.greatestItem != null && next.greatestItem.compareTo(this.greatestItem) > 0)) {
+				this.greatestItem = next.greatestItem; // this batch comes first, so it wins ties
+			}
+		}
+    }
+
+    /**
+     * Returns the index of the items sorted by weight, building it first if
+     * there is none yet.
+     */
+    private WeightIndex weightIndex() {
+		if(this.weightIndex == null) {
+			this.weightIndex = new WeightIndex(this.items);
+		}
+		return this.weightIndex;
+    }
+
+    /**
+     * Returns a new Knapsack with a subset of the Items of this Knapsack
+     * whose total weight is at most capacityInGrammes and whose total value,
+     * as given by the value function, is as large as possible (the exact
+     * 0/1 knapsack problem). Items with a value of 0 or less are never
+     * chosen; Items of weight 0 with a positive value are always chosen.
+     * Among subsets of equal value, Items that come earlier in this
+     * Knapsack are preferred. Does not modify this Knapsack.
+     *
+     * The solver is a dynamic programme over the capacity with a single
+     * rolling array of best values, so it needs O(capacity) memory for the
+     * values plus one bit per (Item, capacity) pair to reconstruct the
+     * chosen subset. Weights and capacity are first divided by the greatest
+     * common divisor of the weights, which shrinks both the running time
+     * and the bitset when weights are multiples of e.g. 10 grammes.
+     *
+     * For example, for a Knapsack with
+     *   new Item("Tent", 3000), new Item("Stove", 1000), new Item("Food", 2000)
+     * a capacity of 3000 and the weight as the value, the result holds either
+     * just the Tent or the Stove and the Food; as the Tent comes first, it is
+     * the Tent.
+     *
+     * @param capacityInGrammes the maximum total weight in grammes of the
+     *  Items in the new Knapsack; must be greater or equal to 0
+     * @param value computes the value of an Item; must not be null
+     * @return a new Knapsack with a value-maximising subset of the Items of
+     *  this Knapsack whose total weight is at most capacityInGrammes
+     */
+    public Knapsack optimalSubsetFor(int capacityInGrammes, ToIntFunction<Item> value) {
+		if(capacityInGrammes < 0) {
+			throw new IllegalArgumentException("Expected capacityInGrammes >= 0; found "
+					+ capacityInGrammes);
+		}
+		if(value == null) {
+			throw new IllegalArgumentException("Value function must not be null!");
+		}
+
+		int n = this.items.size();
+		boolean[] keep = new boolean[n]; // which positions of items end up in the result
+		int[] origin = new int[n]; // position in items of each candidate
+		int[] weights = new int[n];
+		int[] values = new int[n];
+		int candidates = 0;
+		int divisor = 0; // gcd of all candidate weights
+		long weightSum = 0;
+
+		for(int i = 0; i < n; i++) {
+			Item x = this.items.get(i);
+			int v = value.applyAsInt(x);
+			int w = x.getWeightInGrammes();
+			if(v <= 0 || w > capacityInGrammes) {
+				continue; // can never improve the result
+			}
+			if(w <= 0) {
+				keep[i] = true; // free value, always take it
+				continue;
+			}
+			origin[candidates] = i;
+			weights[candidates] = w;
+			values[candidates] = v;
+			candidates++;
+			divisor = gcd(divisor, w);
+			weightSum += w;
+		}
+
+		if(candidates > 0 && weightSum <= capacityInGrammes) {
+			for(int j = 0; j < candidates; j++) {
+				keep[origin[j]] = true; // everything fits, no need to search
+			}
+		} else if(candidates > 0) {
+			int capacity = capacityInGrammes / divisor;
+			long[] best = new long[capacity + 1]; // best[c] = best value within capacity c so far
+			long[][] taken = new long[candidates][]; // taken[j] bit (c - w) set if candidate j improved best[c]
+			int[] reaches = new int[candidates]; // capacities above reaches[j] had the same best value as reaches[j]
+			int reach = 0; // no capacity above the sum of weights seen so far can be improved
+
+			for(int j = 0; j < candidates; j++) {
+				int w = weights[j] / divisor;
+				weights[j] = w;
+				int previousReach = reach;
+				reach = (int) Math.min(capacity, (long) reach + w);
+				Arrays.fill(best, previousReach + 1, reach + 1, best[previousReach]); // nothing new fits there yet
+				long[] row = new long[((reach - w) >>> 6) + 1];
+				for(int c = reach; c >= w; c--) { // downwards, so every candidate is used at most once
+					long candidate = best[c - w] + values[j];
+					if(candidate > best[c]) {
+						best[c] = candidate;
+						row[(c - w) >>> 6] |= 1L << (c - w);
+					}
+				}
+				taken[j] = row;
+				reaches[j] = reach;
+			}
+
+			int c = capacity;
+			for(int j = candidates - 1; j >= 0; j--) { // walk back through the decisions
+				int w = weights[j];
+				c = Math.min(c, reaches[j]);
+				int bit = c - w;
+				if(bit >= 0 && (taken[j][bit >>> 6] & (1L << bit)) != 0) {
+					keep[origin[j]] = true;
+					c -= w;
+				}
+			}
+		}
+
+		Knapsack newKnapsack = new Knapsack();
+		for(int i = 0; i < n; i++) {
+			if(keep[i]) {
+				newKnapsack.add(this.items.get(i)); // keep the original order
+			}
+		}
+        return newKnapsack;
+    }
+
+    /**
+     * Writes the Items of this Knapsack to a binary snapshot file, replacing
+     * the file if it exists only once the new snapshot is complete on the
+     * disk (see KnapsackSnapshot.write). The snapshot can be opened again
+     * with KnapsackSnapshot.open, which memory-maps it, or with
+     * readSnapshot.
+     *
+     * @param file the file to write; must not be null
+     * @throws IOException if the file cannot be written
+     * @see KnapsackSnapshot
+     */
+    public void writeSnapshot(Path file) throws IOException {
+		KnapsackSnapshot.write(this.items, this.totalWeightInGrammes, file);
+    }
+
     /**
      * Returns a string representation of this Knapsack. The string
      * representation consists of a list of the Knapsack's contents,
@@ -263,6 +823,21 @@ public class Knapsack {
 
     /* class methods */
 
+    /**
+     * Class method to return a new Knapsack with the Items of a snapshot file
+     * written by writeSnapshot, in the same order.
+     *
+     * @param file the file to read; must not be null
+     * @return a new Knapsack with the Items in the snapshot
+     * @throws IOException if the file cannot be read or is not a valid
+     *  snapshot, or if a checksum is wrong
+     */
+    public static Knapsack readSnapshot(Path file) throws IOException {
+		KnapsackSnapshot snapshot = KnapsackSnapshot.open(file);
+		snapshot.verify(); // toKnapsack reads every page anyway
+        return snapshot.toKnapsack();
+    }
+
     /**
      * Class method to return a Knapsack with the highest total weight from an
      * array of Knapsacks. If we have an array with a Knapsack of 3000 grammes
@@ -276,7 +851,8 @@ public class Knapsack {
      * If there are several Knapsacks with the same weight, it is up to the
      * method implementation to choose one of them as the result (i.e., the
      * choice is implementation-specific, and method users should not rely on
-     * any particular behaviour).
+     * any particular behaviour). This implementation returns the first of
+     * them in the array, as does parallelHeaviestKnapsack.
      *
      * @param knapsacks must not be null, but may contain null
      * @return one of the Knapsacks with the highest total weight among all
@@ -288,21 +864,164 @@ public class Knapsack {
 		if(knapsacks == null || knapsacks.length < 1) // if it's empty then return 1
 			return null;
 
-		int count = 0; // count non-null knapsacks
-		Knapsack heaviest = new Knapsack();
-		for(Knapsack k: knapsacks){
-			if(k != null) {
-				count++;
-				if(k.totalWeightInGrammes() > heaviest.totalWeightInGrammes()) {
-					heaviest = k; //update the heaviest
+		return heaviestKnapsack(knapsacks, 0, knapsacks.length); // null if there is no valid knapsack
+    }
+
+    /**
+     * Class method to return a Knapsack with the highest total weight from an
+     * array of Knapsacks, like heaviestKnapsack, but splitting large arrays
+     * across the threads of the common ForkJoinPool. Arrays with fewer than
+     * PARALLEL_THRESHOLD entries are scanned sequentially. The result is
+     * always the same as that of heaviestKnapsack: of several Knapsacks with
+     * the same weight the first in the array is returned, null entries are
+     * ignored, and null is returned if there is no non-null entry.
+     *
+     * @param knapsacks must not be null, but may contain null
+     * @return the first of the Knapsacks with the highest total weight among
+     *  all Knapsacks in the parameter array; null if there is no non-null
+     *  reference in knapsacks
+     */
+    public static Knapsack parallelHeaviestKnapsack(Knapsack[] knapsacks) {
+		if(knapsacks == null || knapsacks.length < 1)
+			return null;
+		if(knapsacks.length < PARALLEL_THRESHOLD)
+			return heaviestKnapsack(knapsacks, 0, knapsacks.length); // not worth forking
+
+		return ForkJoinPool.commonPool().invoke(new HeaviestTask(knapsacks, 0, knapsacks.length));
+    }
+
+    /**
+     * Class method to return the k Knapsacks with the highest total weight
+     * from an array of Knapsacks, heaviest first. Of several Knapsacks with
+     * the same weight the one that comes first in the array comes first in
+     * the result, so heaviestKnapsacks(knapsacks, 1) contains exactly
+     * heaviestKnapsack(knapsacks). Null entries are ignored; if there are
+     * fewer than k non-null entries, all of them are returned.
+     *
+     * Uses a heap of at most k Knapsacks per thread, and, like
+     * parallelHeaviestKnapsack, splits arrays with at least
+     * PARALLEL_THRESHOLD entries across the threads of the common
+     * ForkJoinPool. The result does not depend on how the array is split.
+     *
+     * @param knapsacks must not be null, but may contain null
+     * @param k the number of Knapsacks to return; must not be less than 0
+     * @return a new array with the k heaviest Knapsacks, heaviest first
+     */
+    public static Knapsack[] heaviestKnapsacks(Knapsack[] knapsacks, int k) {
+		if(k < 0) {
+			throw new IllegalArgumentException("Expected k >= 0; found " + k);
+		}
+		if(knapsacks == null || knapsacks.length < 1 || k == 0)
+			return new Knapsack[0];
+
+		HeaviestKTask task = new HeaviestKTask(knapsacks, 0, knapsacks.length, Math.min(k, knapsacks.length));
+		BoundedHeap<Knapsack> heaviest = knapsacks.length < PARALLEL_THRESHOLD
+				? task.compute() // not worth forking
+				: ForkJoinPool.commonPool().invoke(task);
+		return heaviest.toSortedArray(new Knapsack[0]);
+    }
+
+    /**
+     * Returns the first of the heaviest non-null Knapsacks in
+     * knapsacks[from] to knapsacks[to - 1]; null if there is none.
+     */
+    private static Knapsack heaviestKnapsack(Knapsack[] knapsacks, int from, int to) {
+		Knapsack heaviest = null;
+		for(int i = from; i < to; i++) {
+			Knapsack k = knapsacks[i];
+			if(k != null && (heaviest == null || k.totalWeightInGrammes() > heaviest.totalWeightInGrammes())) {
+				heaviest = k; // strictly heavier, so the first of equal knapsacks stays
+			}
+		}
+		return heaviest;
+    }
+
+    /**
+     * Finds the first heaviest Knapsack of a range of an array by splitting
+     * the range in halves until it is shorter than PARALLEL_THRESHOLD.
+     */
+    private static class HeaviestTask extends RecursiveTask<Knapsack> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Knapsack[] knapsacks;
+		private final int from;
+		private final int to;
+
+		HeaviestTask(Knapsack[] knapsacks, int from, int to) {
+			this.knapsacks = knapsacks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Knapsack compute() {
+			if(this.to - this.from < PARALLEL_THRESHOLD) {
+				return heaviestKnapsack(this.knapsacks, this.from, this.to);
+			}
+			int mid = (this.from + this.to) >>> 1;
+			HeaviestTask right = new HeaviestTask(this.knapsacks, mid, this.to);
+			right.fork();
+			Knapsack left = new HeaviestTask(this.knapsacks, this.from, mid).compute();
+			Knapsack rightResult = right.join();
+			if(left == null || (rightResult != null
+					&& rightResult.totalWeightInGrammes() > left.totalWeightInGrammes())) {
+				return rightResult; // the left half wins ties, as in the sequential scan
+			}
+			return left;
+		}
+    }
+
+    /**
+     * Finds the k heaviest Knapsacks of a range of an array by splitting
+     * the range in halves until it is shorter than PARALLEL_THRESHOLD.
+     */
+    private static class HeaviestKTask extends RecursiveTask<BoundedHeap<Knapsack>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Knapsack[] knapsacks;
+		private final int from;
+		private final int to;
+		private final int k;
+
+		HeaviestKTask(Knapsack[] knapsacks, int from, int to, int k) {
+			this.knapsacks = knapsacks;
+			this.from = from;
+			this.to = to;
+			this.k = k;
+		}
+
+		@Override
+		protected BoundedHeap<Knapsack> compute() {
+			if(this.to - this.from < PARALLEL_THRESHOLD) {
+				BoundedHeap<Knapsack> heaviest = new BoundedHeap<>(this.k, BY_WEIGHT);
+				for(int i = this.from; i < this.to; i++) {
+					if(this.knapsacks[i] != null) {
+						heaviest.offer(this.knapsacks[i], i); // ties are broken by array index
+					}
 				}
+				return heaviest;
 			}
-		
+			int mid = (this.from + this.to) >>> 1;
+			HeaviestKTask right = new HeaviestKTask(this.knapsacks, mid, this.to, this.k);
+			right.fork();
+			BoundedHeap<Knapsack> heaviest = new HeaviestKTask(this.knapsacks, this.from, mid, this.k).compute();
+			heaviest.offerAll(right.join());
+			return heaviest;
 		}
-        
-		if(count > 0)
-			return heaviest; // there is atleast 1 valid knapsack
+    }
 
-		return null; // return null by default
+    /**
+     * Returns the greatest common divisor of a and b, both greater or equal
+     * to 0; gcd(0, b) is b.
+     */
+    private static int gcd(int a, int b) {
+		while(b != 0) {
+			int r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
     }
 }
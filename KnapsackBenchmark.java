@@ -0,0 +1,438 @@
+/**
+ * Measures the performance of the Knapsack operations that are used most,
+ * for a range of sizes, so that changes to Knapsack can be compared with
+ * a saved baseline (see benchmark-baseline.txt). For every benchmark and
+ * size it prints the time per operation and the bytes allocated per
+ * operation on the heap (similar to JMH with -prof gc), after a number of
+ * warmup iterations. Operations that modify a Knapsack get a new one for
+ * every call, built outside of what is measured.
+ *
+ * Before the measurements of every size, the number of Items that
+ * Knapsack keeps up to date is checked against a count of its Items after
+ * every kind of modifier, and ConcurrentKnapsack is stressed
+ * by many producers adding the same Items at once, while readers query it,
+ * and the result is checked against a Knapsack filled by one thread.
+ * After them, the heap and direct memory retained by a Knapsack and by an
+ * OffHeapKnapsack of the same Items are measured.
+ *
+ * Usage: java KnapsackBenchmark [largest size]
+ * (default 1000000; sizes are powers of 10 from 1000, up to 10000000)
+ *
+ *
+ */
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public class KnapsackBenchmark {
+
+	/** Number of warmup iterations per benchmark. */
+	private static final int WARMUP_ITERATIONS = 3;
+
+	/** Number of measured iterations per benchmark. */
+	private static final int MEASURED_ITERATIONS = 5;
+
+	/** Minimum duration of one iteration in nanoseconds. */
+	private static final long ITERATION_NANOS = 200_000_000L;
+
+	/** Number of Items a producer of the stress test adds with one call of addAll. */
+	private static final int STRESS_CHUNK = 64;
+
+	/** Number of readings of the heap of which the median is taken when measuring memory. */
+	private static final int HEAP_SAMPLES = 5;
+
+	/** Results of benchmarked operations are added here so that they are not optimised away. */
+	private static volatile long sink;
+
+    /**
+     * An operation to be measured, which stands for ops single operations
+     * (e.g. adding ops Items). Returns a value for the sink.
+     */
+    private interface Operation {
+		long run();
+    }
+
+    /**
+     * An operation that modifies its target, which is built anew for every
+     * call by a setup that is not measured.
+     */
+    private interface Modification<T> {
+		long run(T target);
+    }
+
+    /**
+     * Measures an operation and prints the result per single operation.
+     *
+     * @param name the name of the benchmark
+     * @param size the size, for the report
+     * @param ops the number of single operations done by one call of op
+     * @param op the operation
+     */
+    private static void measure(String name, int size, long ops, Operation op) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		double bestNanos = Double.MAX_VALUE;
+		double bytes = 0;
+		for(int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			long calls = 0;
+			long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			long now;
+			do {
+				sink += op.run();
+				calls++;
+				now = System.nanoTime();
+			} while(now - start < ITERATION_NANOS);
+			long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+			if(iteration >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, (now - start) / (double) (calls * ops));
+				bytes += allocated / (double) (calls * ops) / MEASURED_ITERATIONS;
+			}
+		}
+		System.out.printf("%-36s %10d %12.2f ns/op %10.1f B/op%n", name, size, bestNanos, bytes);
+    }
+
+    /**
+     * Measures an operation that modifies its target, as measure does, but
+     * builds the target for every call first with setup, outside of the
+     * time and allocation measured.
+     *
+     * @param name the name of the benchmark
+     * @param size the size, for the report
+     * @param ops the number of single operations done by one call of op
+     * @param setup builds a new target for every call of op
+     * @param op the operation
+     */
+    private static <T> void measureEach(String name, int size, long ops, Supplier<T> setup, Modification<T> op) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		double bestNanos = Double.MAX_VALUE;
+		double bytes = 0;
+		for(int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+			long calls = 0;
+			long allocated = 0;
+			long nanos = 0;
+			do {
+				T target = setup.get();
+				long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+				long start = System.nanoTime();
+				sink += op.run(target);
+				nanos += System.nanoTime() - start;
+				allocated += threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+				calls++;
+			} while(nanos < ITERATION_NANOS);
+			if(iteration >= WARMUP_ITERATIONS) {
+				bestNanos = Math.min(bestNanos, nanos / (double) (calls * ops));
+				bytes += allocated / (double) (calls * ops) / MEASURED_ITERATIONS;
+			}
+		}
+		System.out.printf("%-36s %10d %12.2f ns/op %10.1f B/op%n", name, size, bestNanos, bytes);
+    }
+
+    /**
+     * Modifies a Knapsack with every modifier in turn, with every seventh
+     * Item replaced by null, and checks after each that numberOfItems() is
+     * the number of non-null Items, both as expected from items and as
+     * counted in the Knapsack.
+     *
+     * @param items the Items to add; must not contain null
+     * @throws IllegalStateException if a check fails
+     */
+    private static void checkNumberOfItems(Item[] items) {
+		Item[] withNulls = items.clone();
+		int nonNull = 0;
+		int light = 0; // non-null Items of at most 5000 g
+		for(int i = 0; i < withNulls.length; i++) {
+			if(i % 7 == 6) {
+				withNulls[i] = null;
+			} else {
+				nonNull++;
+				light += withNulls[i].getWeightInGrammes() <= 5000 ? 1 : 0;
+			}
+		}
+		Knapsack k = new Knapsack();
+		for(Item x: withNulls) {
+			k.add(x);
+		}
+		checkNumberOfItems(k, nonNull, "add");
+		k.addAll(withNulls);
+		checkNumberOfItems(k, 2 * nonNull, "addAll(Item[])");
+		k.addAllFromCollection(Arrays.asList(withNulls));
+		checkNumberOfItems(k, 3 * nonNull, "addAllFromCollection");
+		k.addAllFromStream(Arrays.stream(withNulls));
+		checkNumberOfItems(k, 4 * nonNull, "addAllFromStream");
+		k.addAllFromStream(Arrays.stream(withNulls).parallel());
+		checkNumberOfItems(k, 5 * nonNull, "addAllFromStream (parallel)");
+		k.addAllFromSpliterator(Arrays.spliterator(withNulls));
+		checkNumberOfItems(k, 6 * nonNull, "addAllFromSpliterator");
+		k.addAllFromKnapsack(new Knapsack(withNulls));
+		checkNumberOfItems(k, 7 * nonNull, "addAllFromKnapsack");
+		k.keepOnlyItemsWith(5000);
+		checkNumberOfItems(k, 7 * light, "keepOnlyItemsWith");
+		k.reset();
+		checkNumberOfItems(k, 0, "reset");
+		k.addAll(withNulls);
+		checkNumberOfItems(k, nonNull, "addAll(Item[]) after reset");
+    }
+
+    /**
+     * Checks that numberOfItems() of a Knapsack is expected and the number
+     * of non-null Items it holds.
+     */
+    private static void checkNumberOfItems(Knapsack k, int expected, String after) {
+		if(k.numberOfItems() != expected || k.countItems() != expected) {
+			throw new IllegalStateException("After " + after + ": numberOfItems() is " + k.numberOfItems()
+					+ ", with " + k.countItems() + " non-null items; expected " + expected);
+		}
+    }
+
+    /**
+     * Adds items to a ConcurrentKnapsack from many producer threads at once,
+     * each adding its share alternately with add and addAll, while reader
+     * threads check that the number of Items and the greatest Item never go
+     * down. Then checks the count, total weight and greatest Item against
+     * expected, a Knapsack with the same Items, and prints the time taken.
+     *
+     * @param items the Items to add
+     * @param expected a Knapsack filled with items by one thread
+     * @param producers the number of producer threads
+     * @throws IllegalStateException if a check fails
+     */
+    private static void stressConcurrentKnapsack(Item[] items, Knapsack expected, int producers)
+			throws InterruptedException {
+		ConcurrentKnapsack concurrent = new ConcurrentKnapsack(producers);
+		String[] failure = new String[1];
+		Thread[] threads = new Thread[producers + 2];
+		for(int p = 0; p < producers; p++) {
+			int from = (int) ((long) items.length * p / producers);
+			int to = (int) ((long) items.length * (p + 1) / producers);
+			threads[p] = new Thread(() -> {
+				for(int i = from, chunk = 0; i < to; i += STRESS_CHUNK, chunk++) {
+					int end = Math.min(i + STRESS_CHUNK, to);
+					if(chunk % 2 == 0) {
+						concurrent.addAll(Arrays.copyOfRange(items, i, end));
+					} else {
+						for(int j = i; j < end; j++) {
+							concurrent.add(items[j]);
+						}
+					}
+				}
+			});
+		}
+		Runnable reader = () -> {
+			int count = 0;
+			Item greatest = null;
+			while(count < items.length && failure[0] == null) {
+				int n = concurrent.numberOfItems();
+				Item g = concurrent.greatestItem();
+				if(n < count || (greatest != null && (g == null || g.compareTo(greatest) < 0))) {
+					synchronized(failure) {
+						failure[0] = "read " + n + " items after " + count + ", greatest " + g + " after " + greatest;
+					}
+				}
+				count = n;
+				greatest = g;
+			}
+		};
+		threads[producers] = new Thread(reader);
+		threads[producers + 1] = new Thread(reader);
+		long start = System.nanoTime();
+		for(Thread t: threads) {
+			t.start();
+		}
+		for(Thread t: threads) {
+			t.join();
+		}
+		long nanos = System.nanoTime() - start;
+		synchronized(failure) {
+			if(failure[0] != null) {
+				throw new IllegalStateException("ConcurrentKnapsack stress: " + failure[0]);
+			}
+		}
+		Item greatest = concurrent.greatestItem();
+		if(concurrent.numberOfItems() != expected.numberOfItems()
+				|| concurrent.totalWeightInGrammes() != expected.totalWeightInGrammes()
+				|| (greatest == null ? expected.greatestItem() != null : greatest.compareTo(expected.greatestItem()) != 0)) {
+			throw new IllegalStateException("ConcurrentKnapsack stress: found " + concurrent.numberOfItems()
+					+ " items of " + concurrent.totalWeightInGrammes() + " g, greatest " + greatest + "; expected "
+					+ expected.numberOfItems() + " items of " + expected.totalWeightInGrammes() + " g, greatest "
+					+ expected.greatestItem());
+		}
+		System.out.printf("%-36s %10d %12.2f ms (%d producers, ok)%n", "ConcurrentKnapsack stress",
+				items.length, nanos / 1e6, producers);
+    }
+
+    /**
+     * Measures the memory retained per Item by a Knapsack and by an
+     * OffHeapKnapsack of size new Items (heap after a full collection, and
+     * direct memory as reported by the "direct" buffer pool), and prints it.
+     * For small sizes the direct memory is dominated by the first chunks.
+     *
+     * The heap is read HEAP_SAMPLES times before and after, and the
+     * medians are subtracted. The noise of that difference is estimated
+     * from a measurement of nothing and from the spread of the readings;
+     * a difference within the noise is printed as "< noise".
+     *
+     * @param size the number of Items
+     */
+    private static void compareMemory(int size) throws InterruptedException {
+		heapSamples(); // lets what the benchmarks before left behind be freed
+		long[] nothing = heapSamples();
+		long[] before = heapSamples();
+		long noise = Math.abs(median(before) - median(nothing)) + spread(nothing);
+
+		long direct = usedDirectBytes();
+		Knapsack knapsack = new Knapsack();
+		for(int i = 0; i < size; i++) {
+			knapsack.add(new Item("Item " + i, i % 10000));
+		}
+		long[] after = heapSamples();
+		printMemory("Memory Knapsack", size, median(after) - median(before),
+				noise + spread(before) + spread(after), usedDirectBytes() - direct);
+		sink += knapsack.numberOfItems(); // keeps it reachable until it has been measured
+		knapsack = null;
+
+		before = heapSamples();
+		direct = usedDirectBytes();
+		OffHeapKnapsack offHeap = new OffHeapKnapsack();
+		for(int i = 0; i < size; i++) {
+			offHeap.add(new Item("Item " + i, i % 10000));
+		}
+		after = heapSamples();
+		printMemory("Memory OffHeapKnapsack", size, median(after) - median(before),
+				noise + spread(before) + spread(after), usedDirectBytes() - direct);
+		sink += offHeap.numberOfItems();
+    }
+
+    /**
+     * Prints the memory retained per Item; the heap figure only if it is
+     * outside the noise, else the noise per Item prefixed with "<".
+     */
+    private static void printMemory(String name, int size, long heapBytes, long noiseBytes, long directBytes) {
+		String heap = Math.abs(heapBytes) > noiseBytes
+				? String.format("%.1f", heapBytes / (double) size)
+				: String.format("< %.1f", noiseBytes / (double) size);
+		System.out.printf("%-36s %10d %12s B/item heap %8.1f B/item direct%n", name, size,
+				heap, directBytes / (double) size);
+    }
+
+    /**
+     * Returns HEAP_SAMPLES readings of usedHeapBytes(), sorted.
+     */
+    private static long[] heapSamples() throws InterruptedException {
+		long[] samples = new long[HEAP_SAMPLES];
+		for(int i = 0; i < samples.length; i++) {
+			samples[i] = usedHeapBytes();
+		}
+		Arrays.sort(samples);
+		return samples;
+    }
+
+    private static long median(long[] sorted) {
+		return sorted[sorted.length / 2];
+    }
+
+    private static long spread(long[] sorted) {
+		return sorted[sorted.length - 1] - sorted[0];
+    }
+
+    /**
+     * Returns the bytes used on the heap after a full collection, after
+     * waiting a little so that the direct buffers found unreachable are
+     * freed as well.
+     */
+    private static long usedHeapBytes() throws InterruptedException {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the bytes of direct memory used by direct ByteBuffers.
+     */
+    private static long usedDirectBytes() {
+		for(BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if(pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+    }
+
+    /**
+     * Main method for running all benchmarks.
+     *
+     * @param args optionally the largest size
+     * @throws InterruptedException if interrupted while the stress test or
+     *  the memory comparison runs
+     */
+    public static void main(String[] args) throws InterruptedException {
+		int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		System.out.printf("%-36s %10s %15s %13s%n", "Benchmark", "size", "time", "alloc");
+		for(int size = 1000; size <= largest; size *= 10) {
+			Random random = new Random(42);
+			Item[] items = new Item[size];
+			for(int i = 0; i < size; i++) {
+				items[i] = new Item("Item " + i, random.nextInt(10000));
+			}
+			Knapsack full = new Knapsack(items);
+			Knapsack[] knapsacks = new Knapsack[size];
+			for(int i = 0; i < size; i++) {
+				knapsacks[i] = new Knapsack();
+				knapsacks[i].add(items[i]);
+			}
+			checkNumberOfItems(items);
+			stressConcurrentKnapsack(items, full, Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+			measure("Knapsack.add", size, size, () -> {
+				Knapsack k = new Knapsack();
+				for(Item x: items) {
+					k.add(x);
+				}
+				return k.numberOfItems();
+			});
+			measure("Knapsack.add (with statistics)", size, size, () -> {
+				Knapsack k = new Knapsack();
+				k.weightStatistics(); // from now on kept up to date by every add
+				for(Item x: items) {
+					k.add(x);
+				}
+				return k.numberOfItems();
+			});
+			measure("Knapsack.addAll(Item[])", size, size, () -> new Knapsack().addAll(items) ? 1 : 0);
+			measureEach("Knapsack.keepOnlyItemsWith", size, size, () -> new Knapsack(items), k -> {
+				k.keepOnlyItemsWith(5000);
+				return k.numberOfItems();
+			});
+			// rotates over copies and adds up every result, so that the call
+			// is not loop-invariant and cannot be hoisted out of the loop
+			Knapsack[] copies = new Knapsack[8];
+			for(int i = 0; i < copies.length; i++) {
+				copies[i] = new Knapsack(items);
+			}
+			measure("Knapsack.greatestItem (cached)", size, 1024, () -> {
+				long weight = 0;
+				for(int i = 0; i < 1024; i++) {
+					weight += copies[i & 7].greatestItem().getWeightInGrammes();
+				}
+				return weight;
+			});
+			measure("Knapsack.keepOnly + greatestItem", size, size, () -> {
+				full.keepOnlyItemsWith(Integer.MAX_VALUE); // forces the next call to rescan
+				return full.greatestItem().getWeightInGrammes();
+			});
+			measure("Knapsack.heaviestKnapsack", size, size,
+					() -> Knapsack.heaviestKnapsack(knapsacks).totalWeightInGrammes());
+			measure("Knapsack.parallelHeaviestKnapsack", size, size,
+					() -> Knapsack.parallelHeaviestKnapsack(knapsacks).totalWeightInGrammes());
+			compareMemory(size);
+		}
+		System.out.println(sink == 42 ? "" : "done");
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * A KnapsackPacker packs Items into as few Knapsacks ("bins") as it can,
+ * where no Knapsack may weigh more than a given capacity, e.g. to split a
+ * shipment into parcels. Finding the least number of bins is hard, so the
+ * packer uses one of two well-known heuristics, which both need at most
+ * 11/9 of the least number of bins (plus a small constant):
+ *
+ * first-fit decreasing: the Items are taken heaviest first, and each one
+ *   is put into the first bin that still has room for it;
+ * best-fit decreasing: the Items are taken heaviest first, and each one
+ *   is put into the bin with the least room left that can still take it.
+ *
+ * Both take O(n log n) time for n Items: the Items are sorted in parallel,
+ * a bin for first fit is found in a segment tree over the room left in
+ * every bin, a bin for best fit in a sorted set of (room left, bin), and
+ * the Knapsacks are filled in parallel once all Items have been placed.
+ * Items of equal weight are placed in the order in which they are given,
+ * so the result does not depend on the number of threads.
+ *
+ *
+ */
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+public class KnapsackPacker {
+
+    /**
+     * The heuristics a KnapsackPacker can use.
+     */
+    public enum Strategy {
+        /** Put each Item, heaviest first, into the first bin with room. */
+        FIRST_FIT_DECREASING,
+        /** Put each Item, heaviest first, into the fullest bin with room. */
+        BEST_FIT_DECREASING
+    }
+
+	/** The maximum weight of a bin in grammes. Must be > 0. */
+	private final int binCapacityInGrammes;
+
+	/** The heuristic used. Must not be null. */
+	private final Strategy strategy;
+
+    /**
+     * Constructs a new KnapsackPacker according to the parameters.
+     *
+     * @param binCapacityInGrammes the maximum total weight in grammes of
+     *  every bin; must be greater than 0
+     * @param strategy the heuristic to use; must not be null
+     */
+    public KnapsackPacker(int binCapacityInGrammes, Strategy strategy) {
+		if(binCapacityInGrammes <= 0) {
+			throw new IllegalArgumentException("Expected binCapacityInGrammes > 0; found " + binCapacityInGrammes);
+		}
+		if(strategy == null) {
+			throw new IllegalArgumentException("Strategy must not be null!");
+		}
+		this.binCapacityInGrammes = binCapacityInGrammes;
+		this.strategy = strategy;
+    }
+
+    /**
+     * Packs the non-null Items in items into bins.
+     *
+     * @param items the Items to pack; must not be null (but may contain
+     *  null); must not contain an Item heavier than the bin capacity or
+     *  with a negative weight
+     * @return the bins, with the number of bins and how full they are
+     */
+    public PackingResult pack(Item[] items) {
+		if(items == null) {
+			throw new IllegalArgumentException("Items must not be null!");
+		}
+
+		// heaviest first, then by position: (capacity - weight, position) as one sortable long
+		long[] order = new long[items.length];
+		int n = 0;
+		long totalWeight = 0;
+		for(int i = 0; i < items.length; i++) {
+			Item x = items[i];
+			if(x == null) {
+				continue;
+			}
+			int w = x.getWeightInGrammes();
+			if(w < 0 || w > this.binCapacityInGrammes) {
+				throw new IllegalArgumentException("Expected 0 <= weight <= " + this.binCapacityInGrammes
+						+ "; found " + w + " for " + x);
+			}
+			order[n++] = ((long) (this.binCapacityInGrammes - w) << 32) | i;
+			totalWeight += w;
+		}
+		Arrays.parallelSort(order, 0, n);
+
+		int[] binOf = new int[n]; // binOf[j] is the bin of the j-th item in order
+		int bins = this.strategy == Strategy.FIRST_FIT_DECREASING
+				? this.firstFit(items, order, n, binOf)
+				: this.bestFit(items, order, n, binOf);
+
+		// group the item positions by bin, keeping the order within each bin
+		int[] start = new int[bins + 1];
+		for(int j = 0; j < n; j++) {
+			start[binOf[j] + 1]++;
+		}
+		for(int b = 0; b < bins; b++) {
+			start[b + 1] += start[b];
+		}
+		int[] next = Arrays.copyOf(start, bins);
+		Item[] grouped = new Item[n];
+		for(int j = 0; j < n; j++) {
+			grouped[next[binOf[j]]++] = items[(int) order[j]];
+		}
+
+		Knapsack[] result = new Knapsack[bins];
+		IntStream.range(0, bins).parallel()
+				.forEach(b -> result[b] = new Knapsack(Arrays.copyOfRange(grouped, start[b], start[b + 1])));
+		return new PackingResult(result, totalWeight, this.binCapacityInGrammes);
+    }
+
+    /**
+     * Places the items by first fit, using a segment tree whose leaves hold
+     * the room left in each bin (unused bins are empty) and whose inner
+     * nodes hold the most room left below them.
+     *
+     * @return the number of bins used
+     */
+    private int firstFit(Item[] items, long[] order, int n, int[] binOf) {
+		int leaves = Integer.highestOneBit(Math.max(1, n) * 2 - 1); // at most one bin per item
+		int[] room = new int[2 * leaves];
+		Arrays.fill(room, this.binCapacityInGrammes);
+		int bins = 0;
+		for(int j = 0; j < n; j++) {
+			int w = items[(int) order[j]].getWeightInGrammes();
+			int node = 1;
+			while(node < leaves) { // go to the leftmost child with enough room
+				node = room[2 * node] >= w ? 2 * node : 2 * node + 1;
+			}
+			int bin = node - leaves;
+			binOf[j] = bin;
+			bins = Math.max(bins, bin + 1);
+			room[node] -= w;
+			for(node >>>= 1; node >= 1; node >>>= 1) {
+				room[node] = Math.max(room[2 * node], room[2 * node + 1]);
+			}
+		}
+		return bins;
+    }
+
+    /**
+     * Places the items by best fit, using a sorted set of the open bins by
+     * (room left, bin number).
+     *
+     * @return the number of bins used
+     */
+    private int bestFit(Item[] items, long[] order, int n, int[] binOf) {
+		TreeSet<Long> open = new TreeSet<>();
+		int bins = 0;
+		for(int j = 0; j < n; j++) {
+			int w = items[(int) order[j]].getWeightInGrammes();
+			Long fullest = open.ceiling((long) w << 32); // least room >= w, lowest bin number first
+			int bin;
+			int room;
+			if(fullest == null) {
+				bin = bins++;
+				room = this.binCapacityInGrammes;
+			} else {
+				open.remove(fullest);
+				bin = (int) (long) fullest;
+				room = (int) (fullest >>> 32);
+			}
+			binOf[j] = bin;
+			open.add(((long) (room - w) << 32) | bin);
+		}
+		return bins;
+    }
+}
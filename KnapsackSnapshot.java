@@ -0,0 +1,361 @@
+/**
+ * A KnapsackSnapshot is the content of a Knapsack saved in a compact binary
+ * file, opened by memory-mapping the file. The weights of the Items are
+ * stored in a column of their own, so the number of Items, their total
+ * weight and every single weight can be read as soon as the file is mapped,
+ * before (or without) creating any Item objects. Items are only created by
+ * itemAt and toKnapsack.
+ *
+ * Every section has a checksum of its own in the header. open only checks
+ * the header, so opening a large snapshot does not read every page of it;
+ * verify() checks the sections, on request (readSnapshot always does).
+ *
+ * File format, version 2, all numbers big-endian:
+ *
+ *   header   magic "KNAP" (int), version (short), 0 (short),
+ *            number of items n (int), total weight (int),
+ *            length of the name section in bytes (long),
+ *            CRC32C of the weights, offsets and names sections (3 ints),
+ *            CRC32C of the header before it (int)
+ *   weights  n ints, the weights in grammes in Knapsack order
+ *   offsets  n + 1 ints, the start of each name in the name section;
+ *            the last one is the length of the name section
+ *   names    the names of the Items in UTF-8, one after the other
+ *
+ * Each section must be smaller than 2 GB, so a snapshot holds up to about
+ * 500 million Items.
+ *
+ *
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+public class KnapsackSnapshot {
+
+	/** "KNAP" in ASCII. */
+	static final int MAGIC = 0x4B4E4150;
+
+	/** The version of the file format written by this class. */
+	static final short VERSION = 2;
+
+	/** The length of the header in bytes. */
+	private static final int HEADER_BYTES = 40;
+
+	/** The position of the section checksums in the header. */
+	private static final int CHECKSUMS_AT = 24;
+
+	/** The size of the buffer used for writing. */
+	private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+	/** The number of items. */
+	private final int numberOfItems;
+
+	/** The total weight of the items in grammes. */
+	private final int totalWeightInGrammes;
+
+	/** The weights section. */
+	private final IntBuffer weights;
+
+	/** The offsets section. */
+	private final IntBuffer offsets;
+
+	/** The names section. */
+	private final ByteBuffer names;
+
+	/** The weights, offsets and names sections as bytes, for verify(). */
+	private final ByteBuffer[] sections;
+
+	/** The checksums of the sections, as stored in the header. */
+	private final int[] checksums;
+
+	/** The file, for messages. */
+	private final Path file;
+
+    private KnapsackSnapshot(int numberOfItems, int totalWeightInGrammes, IntBuffer weights,
+            IntBuffer offsets, ByteBuffer names, ByteBuffer[] sections, int[] checksums, Path file) {
+		this.numberOfItems = numberOfItems;
+		this.totalWeightInGrammes = totalWeightInGrammes;
+		this.weights = weights;
+		this.offsets = offsets;
+		this.names = names;
+		this.sections = sections;
+		this.checksums = checksums;
+		this.file = file;
+    }
+
+    /* Writing */
+
+    /**
+     * Writes a snapshot of items to file, replacing the file if it exists.
+     * The snapshot is written to a temporary file next to file, forced to
+     * the disk, and only then moved over file in one atomic step, so file
+     * holds either the previous snapshot or the new one, complete, even if
+     * writing fails or the machine crashes part way through.
+     *
+     * @param items the items of a Knapsack; must not be null and must not
+     *  contain null
+     * @param totalWeightInGrammes the total weight of items
+     * @param file the file to write; must not be null
+     * @throws IOException if the file cannot be written
+     */
+    static void write(List<Item> items, int totalWeightInGrammes, Path file) throws IOException {
+		int n = items.size();
+		long namesLength = 0;
+		for(int i = 0; i < n; i++) { // first pass: only the lengths, so no name is kept encoded
+			namesLength += utf8Length(items.get(i).getName());
+		}
+		if(namesLength > Integer.MAX_VALUE || (n + 1L) * Integer.BYTES > Integer.MAX_VALUE) {
+			throw new IOException("Knapsack too large for a snapshot");
+		}
+
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+				channel.position(HEADER_BYTES); // the header follows once the checksums are known
+
+				CRC32C weightsChecksum = new CRC32C();
+				for(int i = 0; i < n; i++) { // weights section
+					if(buffer.remaining() < Integer.BYTES) {
+						flush(buffer, channel, weightsChecksum);
+					}
+					buffer.putInt(items.get(i).getWeightInGrammes());
+				}
+				flush(buffer, channel, weightsChecksum);
+
+				CRC32C offsetsChecksum = new CRC32C();
+				int offset = 0;
+				for(int i = 0; i <= n; i++) { // offsets section
+					if(buffer.remaining() < Integer.BYTES) {
+						flush(buffer, channel, offsetsChecksum);
+					}
+					buffer.putInt(offset);
+					if(i < n) {
+						offset += utf8Length(items.get(i).getName());
+					}
+				}
+				flush(buffer, channel, offsetsChecksum);
+
+				CRC32C namesChecksum = new CRC32C();
+				for(int i = 0; i < n; i++) { // names section, second pass
+					byte[] name = items.get(i).getName().getBytes(StandardCharsets.UTF_8);
+					int written = 0;
+					while(written < name.length) {
+						if(!buffer.hasRemaining()) {
+							flush(buffer, channel, namesChecksum);
+						}
+						int chunk = Math.min(buffer.remaining(), name.length - written);
+						buffer.put(name, written, chunk);
+						written += chunk;
+					}
+				}
+				flush(buffer, channel, namesChecksum);
+
+				buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+						.putInt(n).putInt(totalWeightInGrammes).putLong(namesLength)
+						.putInt((int) weightsChecksum.getValue()).putInt((int) offsetsChecksum.getValue())
+						.putInt((int) namesChecksum.getValue());
+				CRC32C headerChecksum = new CRC32C();
+				headerChecksum.update(buffer.duplicate().flip());
+				buffer.putInt((int) headerChecksum.getValue()).flip();
+				for(long position = 0; buffer.hasRemaining(); ) {
+					position += channel.write(buffer, position);
+				}
+				channel.force(true);
+			}
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if(!moved) {
+				Files.deleteIfExists(temporary); // the previous snapshot, if any, is untouched
+			}
+		}
+    }
+
+    /**
+     * Returns the number of bytes of s in UTF-8, as encoded by
+     * String.getBytes (which encodes a lone surrogate as '?').
+     */
+    private static int utf8Length(String s) {
+		int length = 0;
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				length++;
+			} else if(c < 0x800) {
+				length += 2;
+			} else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if(Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+    }
+
+    /**
+     * Writes the content of buffer to channel, adds it to checksum, and
+     * clears buffer.
+     */
+    private static void flush(ByteBuffer buffer, FileChannel channel, CRC32C checksum) throws IOException {
+		buffer.flip();
+		checksum.update(buffer.duplicate());
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+    }
+
+    /* Reading */
+
+    /**
+     * Opens a snapshot written by Knapsack.writeSnapshot by memory-mapping
+     * the file. Only the header is read and checked; the sections are
+     * read when they are used, and their checksums are only verified by
+     * verify(). Until then, a damaged file may give wrong weights or names.
+     *
+     * @param file the file to open; must not be null
+     * @return the snapshot in the file
+     * @throws IOException if the file cannot be read, is not a snapshot,
+     *  has an unknown version or a damaged header
+     */
+    public static KnapsackSnapshot open(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size < HEADER_BYTES + Integer.BYTES) {
+				throw new IOException("Not a Knapsack snapshot: " + file);
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if(header.getInt() != MAGIC) {
+				throw new IOException("Not a Knapsack snapshot: " + file);
+			}
+			short version = header.getShort();
+			if(version != VERSION) {
+				throw new IOException("Unsupported Knapsack snapshot version " + version + ": " + file);
+			}
+			CRC32C headerChecksum = new CRC32C();
+			headerChecksum.update(header.duplicate().position(0).limit(HEADER_BYTES - Integer.BYTES));
+			if((int) headerChecksum.getValue() != header.getInt(HEADER_BYTES - Integer.BYTES)) {
+				throw new IOException("Wrong header checksum in Knapsack snapshot: " + file);
+			}
+			header.getShort();
+			int n = header.getInt();
+			int totalWeightInGrammes = header.getInt();
+			long namesLength = header.getLong();
+			int[] checksums = new int[3];
+			for(int i = 0; i < checksums.length; i++) {
+				checksums[i] = header.getInt(CHECKSUMS_AT + i * Integer.BYTES);
+			}
+
+			long weightsStart = HEADER_BYTES;
+			long offsetsStart = weightsStart + (long) n * Integer.BYTES;
+			long namesStart = offsetsStart + (n + 1L) * Integer.BYTES;
+			if(n < 0 || namesLength < 0 || namesStart + namesLength != size) {
+				throw new IOException("Corrupt Knapsack snapshot: " + file);
+			}
+
+			MappedByteBuffer weights = channel.map(FileChannel.MapMode.READ_ONLY, weightsStart, offsetsStart - weightsStart);
+			MappedByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsStart, namesStart - offsetsStart);
+			MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, namesStart, namesLength);
+			return new KnapsackSnapshot(n, totalWeightInGrammes, weights.asIntBuffer().asReadOnlyBuffer(),
+					offsets.asIntBuffer(), names, new ByteBuffer[] { weights, offsets, names }, checksums, file);
+		}
+    }
+
+    /**
+     * Verifies the checksums of the weights, offsets and names sections,
+     * which reads the whole file.
+     *
+     * @throws IOException if a section has a wrong checksum
+     */
+    public void verify() throws IOException {
+		String[] names = { "weights", "offsets", "names" };
+		for(int i = 0; i < this.sections.length; i++) {
+			CRC32C checksum = new CRC32C();
+			checksum.update(this.sections[i].duplicate());
+			if((int) checksum.getValue() != this.checksums[i]) {
+				throw new IOException("Wrong checksum of the " + names[i] + " in Knapsack snapshot: " + this.file);
+			}
+		}
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of Items in this snapshot
+     */
+    public int numberOfItems() {
+        return this.numberOfItems;
+    }
+
+    /**
+     * @return the total weight of the Items in this snapshot in grammes
+     */
+    public int totalWeightInGrammes() {
+        return this.totalWeightInGrammes;
+    }
+
+    /**
+     * Returns the weight of the i-th Item without creating it.
+     *
+     * @param i the index of the Item; must be between 0 and
+     *  numberOfItems() - 1
+     * @return the weight of the i-th Item in grammes
+     */
+    public int weightInGrammes(int i) {
+        return this.weights.get(i);
+    }
+
+    /**
+     * Returns the weight column, backed by the mapped file.
+     *
+     * @return a read-only buffer of the weights in grammes, one per Item
+     */
+    public IntBuffer weights() {
+        return this.weights.duplicate();
+    }
+
+    /**
+     * Creates the i-th Item of this snapshot.
+     *
+     * @param i the index of the Item; must be between 0 and
+     *  numberOfItems() - 1
+     * @return a new Item with the name and weight of the i-th Item
+     */
+    public Item itemAt(int i) {
+		int start = this.offsets.get(i);
+		int end = this.offsets.get(i + 1);
+		byte[] name = new byte[end - start];
+		this.names.get(start, name);
+		return new Item(new String(name, StandardCharsets.UTF_8), this.weights.get(i));
+    }
+
+    /**
+     * Creates a new Knapsack with all Items of this snapshot, in the order
+     * in which they were written.
+     *
+     * @return a new Knapsack with all Items of this snapshot
+     */
+    public Knapsack toKnapsack() {
+		Item[] items = new Item[this.numberOfItems];
+		for(int i = 0; i < items.length; i++) {
+			items[i] = this.itemAt(i);
+		}
+		return new Knapsack(items);
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * A KnapsackView is a read-only, filtered view of the Items of a Knapsack,
+ * obtained by Knapsack.view(). Filters such as withMaxItemWeight can be
+ * chained; each returns a new view and nothing is copied. The queries of a
+ * view (numberOfItems, totalWeightInGrammes, ...) run the filters and the
+ * aggregation in one pass over the Items of the Knapsack, so chaining more
+ * filters does not need more memory. Only toKnapsack creates a Knapsack
+ * with the Items that pass all filters.
+ *
+ * A view is not a snapshot: it reflects later changes to its Knapsack.
+ *
+ * For example,
+ *   k.view().withMaxItemWeight(500).withMinItemWeight(100).totalWeightInGrammes()
+ * returns the total weight of the Items in k that weigh between 100 and
+ * 500 grammes.
+ *
+ *
+ */
+import java.util.List;
+import java.util.function.Predicate;
+
+public class KnapsackView {
+
+	/** The items of the viewed knapsack; not modified by the view. */
+	private final List<Item> items;
+
+	/** Items lighter than this are filtered out. */
+	private final int minItemWeightInGrammes;
+
+	/** Items heavier than this are filtered out. */
+	private final int maxItemWeightInGrammes;
+
+	/** Items that do not satisfy this are filtered out; null if there is no such filter. */
+	private final Predicate<? super Item> filter;
+
+    /**
+     * Constructs a new view of all the items of a Knapsack.
+     *
+     * @param items the items of the Knapsack; must not be null and must
+     *  not contain null
+     */
+    KnapsackView(List<Item> items) {
+		this(items, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    private KnapsackView(List<Item> items, int minItemWeightInGrammes, int maxItemWeightInGrammes,
+            Predicate<? super Item> filter) {
+		this.items = items;
+		this.minItemWeightInGrammes = minItemWeightInGrammes;
+		this.maxItemWeightInGrammes = maxItemWeightInGrammes;
+		this.filter = filter;
+    }
+
+    /* Filters */
+
+    /**
+     * Returns a view of exactly those Items of this view whose weight in
+     * grammes is less than or equal to the specified maximum weight.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items in the new view
+     * @return a view of the Items of this view with at most this weight
+     */
+    public KnapsackView withMaxItemWeight(int maxItemWeightInGrammes) {
+        return new KnapsackView(this.items, this.minItemWeightInGrammes,
+                Math.min(this.maxItemWeightInGrammes, maxItemWeightInGrammes), this.filter);
+    }
+
+    /**
+     * Returns a view of exactly those Items of this view whose weight in
+     * grammes is greater than or equal to the specified minimum weight.
+     *
+     * @param minItemWeightInGrammes the minimum weight in grammes for the
+     *  Items in the new view
+     * @return a view of the Items of this view with at least this weight
+     */
+    public KnapsackView withMinItemWeight(int minItemWeightInGrammes) {
+        return new KnapsackView(this.items, Math.max(this.minItemWeightInGrammes, minItemWeightInGrammes),
+                this.maxItemWeightInGrammes, this.filter);
+    }
+
+    /**
+     * Returns a view of exactly those Items of this view that satisfy the
+     * given predicate.
+     *
+     * @param predicate must not be null
+     * @return a view of the Items of this view that satisfy the predicate
+     */
+    public KnapsackView filter(Predicate<? super Item> predicate) {
+		if(predicate == null) {
+			throw new IllegalArgumentException("Predicate must not be null!");
+		}
+		Predicate<? super Item> combined = predicate;
+		if(this.filter != null) {
+			Predicate<? super Item> first = this.filter;
+			combined = x -> first.test(x) && predicate.test(x);
+		}
+        return new KnapsackView(this.items, this.minItemWeightInGrammes, this.maxItemWeightInGrammes, combined);
+    }
+
+    /* Accessors */
+
+    /**
+     * Returns the number of Items in this view.
+     *
+     * @return the number of Items in this view
+     */
+    public int numberOfItems() {
+		int count = 0;
+		for(Item x: this.items) {
+			if(this.accepts(x)) {
+				count++;
+			}
+		}
+		return count;
+    }
+
+    /**
+     * Returns the total weight of the Items in this view.
+     *
+     * @return the total weight of the Items in this view
+     */
+    public int totalWeightInGrammes() {
+		int weight = 0;
+		for(Item x: this.items) {
+			if(this.accepts(x)) {
+				weight += x.getWeightInGrammes();
+			}
+		}
+		return weight;
+    }
+
+    /**
+     * Returns the average weight in grammes of the Items in this view, as
+     * Knapsack.averageWeightInGrammes does; -1.0 if there is no Item in
+     * this view. The count and the weight are computed in the same pass.
+     *
+     * @return the average weight of the Items in this view, or -1.0 if
+     *  there is no such Item
+     */
+    public double averageWeightInGrammes() {
+		int count = 0;
+		int weight = 0;
+		for(Item x: this.items) {
+			if(this.accepts(x)) {
+				count++;
+				weight += x.getWeightInGrammes();
+			}
+		}
+		if(count < 1) //avoid division by zero error
+			return -1.0;
+
+		return weight / (double) count;
+    }
+
+    /**
+     * Returns the greatest Item in this view according to the natural
+     * ordering of Item given by its compareTo method, the first of several
+     * equal ones; null if there is no Item in this view.
+     *
+     * @return the greatest Item in this view; null if there is none
+     */
+    public Item greatestItem() {
+		Item greatest = null;
+		for(Item x: this.items) {
+			if(this.accepts(x) && (greatest == null || x.compareTo(greatest) > 0)) {
+				greatest = x;
+			}
+		}
+		return greatest;
+    }
+
+    /**
+     * Returns a new Knapsack with exactly the Items in this view. This is
+     * the only method of a view that copies Items.
+     *
+     * @return a new Knapsack with exactly the Items in this view
+     */
+    public Knapsack toKnapsack() {
+		Knapsack newKnapsack = new Knapsack();
+		for(Item x: this.items) {
+			if(this.accepts(x)) {
+				newKnapsack.add(x);
+			}
+		}
+		return newKnapsack;
+    }
+
+    /**
+     * Returns a string representation of the Items in this view, in the
+     * format of Knapsack.toString.
+     *
+     * @return a String representation of this view
+     */
+    @Override
+    public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for(Item x: this.items) {
+			if(this.accepts(x)) {
+				if(result.length() > 1) {
+					result.append(", ");
+				}
+				result.append(x);
+			}
+		}
+		return result.append(']').toString();
+    }
+
+    /**
+     * Returns whether x passes all filters of this view.
+     */
+    private boolean accepts(Item x) {
+		int w = x.getWeightInGrammes();
+		return w >= this.minItemWeightInGrammes && w <= this.maxItemWeightInGrammes
+				&& (this.filter == null || this.filter.test(x));
+    }
+}
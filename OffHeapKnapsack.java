@@ -0,0 +1,347 @@
+/**
+ * An OffHeapKnapsack holds Items like a Knapsack, but keeps them outside of
+ * the Java heap, in direct ByteBuffers: one fixed-size record per Item with
+ * its weight and the position of its name, and the names themselves in
+ * UTF-8. An Item object is only created again when it is read (itemAt,
+ * greatestItem after Items were removed, toKnapsack, toString), so the
+ * garbage collector has almost nothing to trace however many Items there
+ * are.
+ *
+ * Memory per Item, for a name of L ASCII characters, on a 64-bit JVM with
+ * compressed references:
+ *
+ *   Knapsack        4 (list slot) + 24 (Item) + 24 (String) + 16 + L (byte[])
+ *                   = about 68 + L bytes on the heap, in three objects
+ *   OffHeapKnapsack 16 (record) + L (name) bytes off the heap, no objects
+ *
+ * so 100 million Items with 20-character names need about 8.8 GB of heap
+ * in a Knapsack and about 3.6 GB of direct memory here. (The direct memory
+ * that a JVM may use is limited by -XX:MaxDirectMemorySize.)
+ *
+ * The methods have the same meaning as those of Knapsack.
+ *
+ *
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class OffHeapKnapsack {
+
+	/** The size of an item record: weight, name chunk, name offset and name length, as ints. */
+	private static final int RECORD_BYTES = 16;
+
+	/** The number of records per record chunk; a power of 2. */
+	private static final int RECORDS_PER_CHUNK = 1 << 16;
+
+	/** The size of a name chunk in bytes. Longer names get a chunk of their own. */
+	private static final int NAME_CHUNK_BYTES = 1 << 22;
+
+	/** The item records, in chunks of RECORDS_PER_CHUNK records. */
+	private final ArrayList<ByteBuffer> records = new ArrayList<>();
+
+	/** The UTF-8 names of the items; the last chunk is filled up to its position. */
+	private ArrayList<ByteBuffer> names = new ArrayList<>();
+
+	/** The number of items. */
+	private int numberOfItems;
+
+	/** The total weight of the items in grammes. */
+	private int totalWeightInGrammes;
+
+	/** The greatest item according to compareTo, null if there is none. Only valid if greatestItemKnown. */
+	private Item greatestItem;
+
+	/** Whether greatestItem is up to date; false after items have been removed. */
+	private boolean greatestItemKnown = true;
+
+    /* Constructors */
+
+    /**
+     * Constructs a new OffHeapKnapsack without any Items.
+     */
+    public OffHeapKnapsack() {
+    }
+
+    /**
+     * Constructs a new OffHeapKnapsack containing the non-null Items in
+     * items.
+     *
+     * @param items must not be null; non-null elements are added to the
+     *  constructed OffHeapKnapsack
+     */
+    public OffHeapKnapsack(Item[] items) {
+		this.addAll(items);
+    }
+
+    /* Modifiers */
+
+    /**
+     * Adds an Item e to this OffHeapKnapsack if e is not null; does not
+     * modify it otherwise. Only the name and the weight of e are stored.
+     *
+     * @param e an item to be added to this OffHeapKnapsack
+     * @return true if e is not null, false otherwise
+     */
+    public boolean add(Item e) {
+		if(e == null) {
+			return false;
+		}
+		this.append(e.getWeightInGrammes(), e.getName().getBytes(StandardCharsets.UTF_8));
+		if(this.greatestItemKnown && (this.greatestItem == null || e.compareTo(this.greatestItem) > 0)) {
+			this.greatestItem = e; // strictly greater, so the first of equal items stays
+		}
+		return true;
+    }
+
+    /**
+     * Adds all non-null Items in items to this OffHeapKnapsack.
+     *
+     * @param items contains the Item objects to be added; must not be null
+     *  (but may contain null)
+     * @return true if at least one element of items is non-null;
+     *  false otherwise
+     */
+    public boolean addAll(Item[] items) {
+		int count = 0;
+		if(items != null) {
+			for(Item x: items) {
+				if(this.add(x)) {
+					count++;
+				}
+			}
+		}
+		return count > 0;
+    }
+
+    /**
+     * Resets this OffHeapKnapsack to one that contains 0 Items, and drops
+     * its references to its direct buffers. Their memory is only freed once
+     * the garbage collector has found them unreachable, which may be long
+     * after on a heap with little garbage.
+     */
+    public void reset() {
+		this.records.clear();
+		this.names = new ArrayList<>();
+		this.numberOfItems = 0;
+		this.totalWeightInGrammes = 0;
+		this.greatestItem = null;
+		this.greatestItemKnown = true;
+    }
+
+    /**
+     * Removes certain Items from this OffHeapKnapsack. Exactly those Items are
+     * kept whose weight in grammes is less than or equal to the specified
+     * maximum weight in grammes. The kept records are moved to the front in
+     * place, and the kept names are copied to new name chunks; the chunks
+     * no longer needed are dropped, and freed as for reset().
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes for the
+     *  Items that are kept
+     */
+    public void keepOnlyItemsWith(int maxItemWeightInGrammes) {
+		ArrayList<ByteBuffer> oldNames = this.names;
+		this.names = new ArrayList<>();
+		int kept = 0;
+		int newWeight = 0;
+		for(int i = 0; i < this.numberOfItems; i++) {
+			ByteBuffer from = this.records.get(i / RECORDS_PER_CHUNK);
+			int at = (i % RECORDS_PER_CHUNK) * RECORD_BYTES;
+			int weight = from.getInt(at);
+			if(weight > maxItemWeightInGrammes) {
+				continue;
+			}
+			ByteBuffer name = oldNames.get(from.getInt(at + 4));
+			int nameOffset = from.getInt(at + 8);
+			int nameLength = from.getInt(at + 12);
+			int chunk = this.reserveName(nameLength);
+			ByteBuffer to = this.names.get(chunk);
+			int newOffset = to.position();
+			to.put(name.slice(nameOffset, nameLength));
+			this.putRecord(kept, weight, chunk, newOffset, nameLength);
+			newWeight += weight;
+			kept++;
+		}
+		while(this.records.size() > (kept + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK) {
+			this.records.remove(this.records.size() - 1); // drop unused chunks
+		}
+		this.numberOfItems = kept;
+		this.totalWeightInGrammes = newWeight;
+		this.greatestItemKnown = false; // it may have been removed, find it again when asked
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of Items in this OffHeapKnapsack
+     */
+    public int numberOfItems() {
+        return this.numberOfItems;
+    }
+
+    /**
+     * @return the total weight of the Items in this OffHeapKnapsack
+     */
+    public int totalWeightInGrammes() {
+        return this.totalWeightInGrammes;
+    }
+
+    /**
+     * @return the average weight of the Items in this OffHeapKnapsack,
+     *  or -1.0 if there is no such Item.
+     */
+    public double averageWeightInGrammes() {
+		if(this.numberOfItems < 1) //avoid division by zero error
+			return -1.0;
+
+		return this.totalWeightInGrammes / (double) this.numberOfItems;
+    }
+
+    /**
+     * Returns the greatest Item in this OffHeapKnapsack according to the
+     * natural ordering of Item given by its compareTo method; null if it
+     * does not contain any Item objects. After keepOnlyItemsWith, the first
+     * call creates every remaining Item once to find it.
+     *
+     * @return the greatest Item in this OffHeapKnapsack; null if there is
+     *  none
+     */
+    public Item greatestItem() {
+		if(!this.greatestItemKnown) {
+			Item greatest = null;
+			for(int i = 0; i < this.numberOfItems; i++) {
+				Item x = this.itemAt(i);
+				if(greatest == null || x.compareTo(greatest) > 0) {
+					greatest = x;
+				}
+			}
+			this.greatestItem = greatest;
+			this.greatestItemKnown = true;
+		}
+		return this.greatestItem;
+    }
+
+    /**
+     * Returns the weight of the i-th Item without creating it.
+     *
+     * @param i the index of the Item; must be between 0 and
+     *  numberOfItems() - 1
+     * @return the weight of the i-th Item in grammes
+     */
+    public int weightInGrammes(int i) {
+		this.checkIndex(i);
+		return this.records.get(i / RECORDS_PER_CHUNK).getInt((i % RECORDS_PER_CHUNK) * RECORD_BYTES);
+    }
+
+    /**
+     * Creates the i-th Item of this OffHeapKnapsack.
+     *
+     * @param i the index of the Item; must be between 0 and
+     *  numberOfItems() - 1
+     * @return a new Item with the name and weight of the i-th Item
+     */
+    public Item itemAt(int i) {
+		this.checkIndex(i);
+		ByteBuffer record = this.records.get(i / RECORDS_PER_CHUNK);
+		int at = (i % RECORDS_PER_CHUNK) * RECORD_BYTES;
+		byte[] name = new byte[record.getInt(at + 12)];
+		this.names.get(record.getInt(at + 4)).get(record.getInt(at + 8), name);
+		return new Item(new String(name, StandardCharsets.UTF_8), record.getInt(at));
+    }
+
+    /**
+     * Returns the number of bytes of direct memory allocated by this
+     * OffHeapKnapsack, for comparison with the heap used by a Knapsack.
+     *
+     * @return the capacity of all direct buffers in bytes
+     */
+    public long offHeapBytes() {
+		long bytes = 0;
+		for(ByteBuffer chunk: this.records) {
+			bytes += chunk.capacity();
+		}
+		for(ByteBuffer chunk: this.names) {
+			bytes += chunk.capacity();
+		}
+		return bytes;
+    }
+
+    /**
+     * Creates a new Knapsack with all Items of this OffHeapKnapsack.
+     *
+     * @return a new Knapsack with all Items of this OffHeapKnapsack
+     */
+    public Knapsack toKnapsack() {
+		Item[] items = new Item[this.numberOfItems];
+		for(int i = 0; i < items.length; i++) {
+			items[i] = this.itemAt(i);
+		}
+		return new Knapsack(items);
+    }
+
+    /**
+     * Returns a string representation of this OffHeapKnapsack in the format
+     * of Knapsack.toString.
+     *
+     * @return a String representation of this OffHeapKnapsack
+     */
+    @Override
+    public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for(int i = 0; i < this.numberOfItems; i++) {
+			if(i > 0) {
+				result.append(", ");
+			}
+			result.append(this.itemAt(i));
+		}
+		return result.append(']').toString();
+    }
+
+    /**
+     * Appends a record for an item with the given weight and encoded name.
+     */
+    private void append(int weight, byte[] name) {
+		if(this.numberOfItems == Integer.MAX_VALUE) {
+			throw new IllegalStateException("OffHeapKnapsack is full");
+		}
+		int chunk = this.reserveName(name.length);
+		ByteBuffer to = this.names.get(chunk);
+		int offset = to.position();
+		to.put(name);
+		this.putRecord(this.numberOfItems, weight, chunk, offset, name.length);
+		this.numberOfItems++;
+		this.totalWeightInGrammes += weight;
+    }
+
+    /**
+     * Writes the record of the i-th item, allocating a new record chunk if
+     * i is the first index of one.
+     */
+    private void putRecord(int i, int weight, int nameChunk, int nameOffset, int nameLength) {
+		if(i / RECORDS_PER_CHUNK == this.records.size()) {
+			this.records.add(ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_BYTES));
+		}
+		ByteBuffer record = this.records.get(i / RECORDS_PER_CHUNK);
+		int at = (i % RECORDS_PER_CHUNK) * RECORD_BYTES;
+		record.putInt(at, weight).putInt(at + 4, nameChunk).putInt(at + 8, nameOffset).putInt(at + 12, nameLength);
+    }
+
+    /**
+     * Returns the index of a name chunk with room for length more bytes at
+     * its position, allocating a new one if the last one is too full.
+     */
+    private int reserveName(int length) {
+		int last = this.names.size() - 1;
+		if(last < 0 || this.names.get(last).remaining() < length) {
+			this.names.add(ByteBuffer.allocateDirect(Math.max(NAME_CHUNK_BYTES, length)));
+			last++;
+		}
+		return last;
+    }
+
+    private void checkIndex(int i) {
+		if(i < 0 || i >= this.numberOfItems) {
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + this.numberOfItems + " items");
+		}
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * The result of packing Items into bins with a KnapsackPacker: the bins as
+ * Knapsacks, how many there are, and how full they are together.
+ *
+ *
+ */
+public final class PackingResult {
+
+	/** The bins. Must not be null. */
+	private final Knapsack[] bins;
+
+	/** The total weight of the items in all bins in grammes. */
+	private final long totalWeightInGrammes;
+
+	/** The capacity of every bin in grammes. */
+	private final int binCapacityInGrammes;
+
+    PackingResult(Knapsack[] bins, long totalWeightInGrammes, int binCapacityInGrammes) {
+		this.bins = bins;
+		this.totalWeightInGrammes = totalWeightInGrammes;
+		this.binCapacityInGrammes = binCapacityInGrammes;
+    }
+
+    /**
+     * @return the bins, a new array in the order in which they were opened
+     */
+    public Knapsack[] bins() {
+        return this.bins.clone();
+    }
+
+    /**
+     * @return the number of bins
+     */
+    public int numberOfBins() {
+        return this.bins.length;
+    }
+
+    /**
+     * @return the total weight of the Items in all bins in grammes
+     */
+    public long totalWeightInGrammes() {
+        return this.totalWeightInGrammes;
+    }
+
+    /**
+     * Returns the total weight of the Items divided by the total capacity of
+     * the bins, between 0 and 1; 0.0 if there are no bins.
+     *
+     * @return how full the bins are together
+     */
+    public double fillRatio() {
+		if(this.bins.length == 0) {
+			return 0.0;
+		}
+		return this.totalWeightInGrammes / ((double) this.binCapacityInGrammes * this.bins.length);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + this.numberOfBins() + " bins, fill ratio " + this.fillRatio() + ")";
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * A WeightIndex keeps the Items of a Knapsack sorted by their weight in
+ * grammes, together with the running totals of those weights, so that
+ * threshold queries ("how many Items weigh at most w grammes, and how much
+ * do they weigh together?") can be answered by a binary search instead of
+ * a scan over all Items.
+ *
+ * The Items are kept in two sorted runs: a main run with all Items up to
+ * some point, and a small delta run with the Items appended since. Items
+ * that are appended are collected in a pending buffer and merged into the
+ * delta run before the next query, so a run of appends costs one sort of
+ * the new Items and one merge with the delta run, not with all Items. The
+ * delta run is merged into the main run only once it holds more than
+ * about the square root of the number of Items, so an append followed by
+ * a query costs O(sqrt(n)) on average instead of O(n). Queries look at
+ * both runs. Items of equal weight stay in the order in which they were
+ * appended.
+ *
+ *
+ */
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+class WeightIndex {
+
+	/** Orders Items by their weight in grammes. */
+	private static final Comparator<Item> BY_WEIGHT = Comparator.comparingInt(Item::getWeightInGrammes);
+
+	/** The least number of Items in the delta run before it is merged into the main run. */
+	private static final int MIN_DELTA_LIMIT = 64;
+
+	/** The Items up to the last merge of the delta run. */
+	private Run main;
+
+	/** The Items appended since, older than those in pending. */
+	private Run delta;
+
+	/** Items appended since the last query, not yet merged into delta. */
+	private Item[] pending;
+
+	/** The number of items in pending. */
+	private int pendingSize;
+
+    /**
+     * A run of Items sorted by weight, together with the running totals of
+     * their weights.
+     */
+    private static final class Run {
+
+		/** An empty run. */
+		static final Run EMPTY = new Run(new Item[0], new int[0], new int[1], 0);
+
+		/** The items, sorted by weight. Only the first size entries are used. */
+		final Item[] sorted;
+
+		/** weights[i] is the weight of sorted[i]. */
+		final int[] weights;
+
+		/** prefixWeights[i] is the total weight of sorted[0] to sorted[i - 1]; prefixWeights[0] is 0. */
+		final int[] prefixWeights;
+
+		/** The number of items in sorted. */
+		final int size;
+
+		Run(Item[] sorted, int[] weights, int[] prefixWeights, int size) {
+			this.sorted = sorted;
+			this.weights = weights;
+			this.prefixWeights = prefixWeights;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the number of entries of weights that are less than or equal
+		 * to weight, i.e. the position of the first heavier entry.
+		 */
+		int upperBound(int weight) {
+			int low = 0;
+			int high = this.size;
+			while(low < high) {
+				int mid = (low + high) >>> 1;
+				if(this.weights[mid] <= weight) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns a new run with the items of this run and the first n of
+		 * newer, which must be sorted by weight; on equal weight the items
+		 * of this run come first.
+		 */
+		Run merge(Item[] newer, int n) {
+			int total = this.size + n;
+			Item[] newSorted = new Item[total];
+			int[] newWeights = new int[total];
+			int[] newPrefixWeights = new int[total + 1];
+			int i = 0; // next in this run
+			int j = 0; // next in newer
+			for(int k = 0; k < total; k++) {
+				Item next;
+				// on equal weight the older item comes first
+				if(j == n || (i < this.size && this.weights[i] <= newer[j].getWeightInGrammes())) {
+					next = this.sorted[i++];
+				} else {
+					next = newer[j++];
+				}
+				newSorted[k] = next;
+				newWeights[k] = next.getWeightInGrammes();
+				newPrefixWeights[k + 1] = newPrefixWeights[k] + newWeights[k];
+			}
+			return new Run(newSorted, newWeights, newPrefixWeights, total);
+		}
+    }
+
+    /**
+     * Constructs a new WeightIndex over the given Items.
+     *
+     * @param items must not be null and must not contain null
+     */
+    WeightIndex(List<Item> items) {
+		Item[] sorted = items.toArray(new Item[0]);
+		Arrays.sort(sorted, BY_WEIGHT); // stable, so equal weights keep their order
+		this.main = Run.EMPTY.merge(sorted, sorted.length);
+		this.delta = Run.EMPTY;
+		this.pending = new Item[8];
+    }
+
+    /**
+     * Appends an Item to this index.
+     *
+     * @param e must not be null
+     */
+    void append(Item e) {
+		if(this.pendingSize == this.pending.length) {
+			this.pending = Arrays.copyOf(this.pending, this.pendingSize * 2);
+		}
+		this.pending[this.pendingSize++] = e;
+    }
+
+    /**
+     * Returns the number of indexed Items whose weight is less than or equal
+     * to maxItemWeightInGrammes.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes
+     * @return the number of Items with at most this weight
+     */
+    int countWithWeightAtMost(int maxItemWeightInGrammes) {
+		this.mergePending();
+		return this.main.upperBound(maxItemWeightInGrammes) + this.delta.upperBound(maxItemWeightInGrammes);
+    }
+
+    /**
+     * Returns the total weight of the indexed Items whose weight is less
+     * than or equal to maxItemWeightInGrammes.
+     *
+     * @param maxItemWeightInGrammes the maximum weight in grammes
+     * @return the total weight of the Items with at most this weight
+     */
+    int totalWeightAtMost(int maxItemWeightInGrammes) {
+		this.mergePending();
+		return this.main.prefixWeights[this.main.upperBound(maxItemWeightInGrammes)]
+				+ this.delta.prefixWeights[this.delta.upperBound(maxItemWeightInGrammes)];
+    }
+
+    /**
+     * Returns the indexed Items whose weight lies between minItemWeightInGrammes
+     * and maxItemWeightInGrammes (both inclusive), lightest first.
+     *
+     * @param minItemWeightInGrammes the minimum weight in grammes
+     * @param maxItemWeightInGrammes the maximum weight in grammes
+     * @return the Items in the given weight range; empty if there are none
+     */
+    Item[] itemsWithWeightBetween(int minItemWeightInGrammes, int maxItemWeightInGrammes) {
+		this.mergePending();
+		if(minItemWeightInGrammes > maxItemWeightInGrammes) {
+			return new Item[0];
+		}
+		Run a = this.main;
+		Run b = this.delta;
+		int i = minItemWeightInGrammes == Integer.MIN_VALUE ? 0 : a.upperBound(minItemWeightInGrammes - 1);
+		int iEnd = a.upperBound(maxItemWeightInGrammes);
+		int j = minItemWeightInGrammes == Integer.MIN_VALUE ? 0 : b.upperBound(minItemWeightInGrammes - 1);
+		int jEnd = b.upperBound(maxItemWeightInGrammes);
+		Item[] result = new Item[iEnd - i + jEnd - j];
+		for(int k = 0; k < result.length; k++) {
+			// on equal weight the older item comes first
+			if(j == jEnd || (i < iEnd && a.weights[i] <= b.weights[j])) {
+				result[k] = a.sorted[i++];
+			} else {
+				result[k] = b.sorted[j++];
+			}
+		}
+		return result;
+    }
+
+    /**
+     * Sorts the pending Items and merges them into the delta run, and that
+     * into the main run once it has grown past the square root of the
+     * number of Items.
+     */
+    private void mergePending() {
+		if(this.pendingSize == 0) {
+			return;
+		}
+		Arrays.sort(this.pending, 0, this.pendingSize, BY_WEIGHT);
+		this.delta = this.delta.merge(this.pending, this.pendingSize);
+		Arrays.fill(this.pending, 0, this.pendingSize, null); // do not hold on to the items twice
+		this.pendingSize = 0;
+		if(this.delta.size > Math.max(MIN_DELTA_LIMIT, (int) Math.sqrt(this.main.size))) {
+			this.main = this.main.merge(this.delta.sorted, this.delta.size);
+			this.delta = Run.EMPTY;
+		}
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * WeightStatistics summarises the weights in grammes of a number of Items
+ * without keeping the Items: count, total, minimum, maximum, mean,
+ * variance, a histogram with one bucket per power of two, and a quantile
+ * sketch from which percentiles such as p50, p95 or p99 can be read.
+ *
+ * The quantile sketch counts weights in logarithmic buckets whose bounds
+ * grow by about 4% each, so a quantile is returned with a relative error of
+ * at most RELATIVE_ACCURACY (2%), and the sketch never needs more than
+ * about 550 counters, however many weights are added. Weights of 0 or less
+ * are counted separately and returned exactly.
+ *
+ * Adding a weight takes constant time. Two WeightStatistics can be merged
+ * without the weights that they were built from, e.g. to combine the
+ * statistics of several Knapsacks: merging gives the same counts, total,
+ * minimum, maximum, histogram and sketch as adding all weights to one
+ * WeightStatistics, and the same mean and variance up to rounding.
+ *
+ *
+ */
+import java.util.Arrays;
+
+public class WeightStatistics {
+
+	/** The largest relative error of a quantile returned by quantile. */
+	public static final double RELATIVE_ACCURACY = 0.02;
+
+	/** The ratio between the bounds of adjacent sketch buckets. */
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+	/** 1 / ln(GAMMA), to compute bucket indices. */
+	private static final double INVERSE_LOG_GAMMA = 1 / Math.log(GAMMA);
+
+	/** The number of weights. */
+	private long count;
+
+	/** The total of the weights. */
+	private long totalWeightInGrammes;
+
+	/** The least weight; undefined if count is 0. */
+	private int minWeightInGrammes;
+
+	/** The greatest weight; undefined if count is 0. */
+	private int maxWeightInGrammes;
+
+	/** The mean of the weights; 0 if count is 0. */
+	private double mean;
+
+	/** The sum of the squared differences between the weights and mean. */
+	private double squaredDeviations;
+
+	/** histogram[0] counts weights <= 0, histogram[b] weights in [2^(b-1), 2^b). Null until the first weight. */
+	private long[] histogram;
+
+	/** The number of weights <= 0, which have no sketch bucket. */
+	private long nonPositiveCount;
+
+	/** sketch[i] counts the positive weights w with bucket index i + sketchOffset. Null until the first one. */
+	private long[] sketch;
+
+	/** The bucket index of sketch[0]. */
+	private int sketchOffset;
+
+    /**
+     * Constructs new WeightStatistics of no weights.
+     */
+    public WeightStatistics() {
+    }
+
+    /**
+     * Constructs a copy of other, which is not affected by later changes to
+     * other.
+     *
+     * @param other the WeightStatistics to copy; must not be null
+     */
+    public WeightStatistics(WeightStatistics other) {
+		this.merge(other);
+    }
+
+    /* Modifiers */
+
+    /**
+     * Adds a weight to these statistics.
+     *
+     * @param weightInGrammes the weight of an Item in grammes
+     */
+    public void add(int weightInGrammes) {
+		if(this.count == 0) {
+			this.minWeightInGrammes = weightInGrammes;
+			this.maxWeightInGrammes = weightInGrammes;
+			this.histogram = new long[Integer.SIZE + 1];
+		} else {
+			this.minWeightInGrammes = Math.min(this.minWeightInGrammes, weightInGrammes);
+			this.maxWeightInGrammes = Math.max(this.maxWeightInGrammes, weightInGrammes);
+		}
+		this.count++;
+		this.totalWeightInGrammes += weightInGrammes;
+
+		double delta = weightInGrammes - this.mean; // Welford's update, stable for millions of weights
+		this.mean += delta / this.count;
+		this.squaredDeviations += delta * (weightInGrammes - this.mean);
+
+		this.histogram[histogramBucket(weightInGrammes)]++;
+		if(weightInGrammes <= 0) {
+			this.nonPositiveCount++;
+		} else {
+			this.addToSketch(sketchBucket(weightInGrammes), 1);
+		}
+    }
+
+    /**
+     * Adds all weights summarised by other to these statistics.
+     *
+     * @param other must not be null; may be this
+     */
+    public void merge(WeightStatistics other) {
+		if(other.count == 0) {
+			return;
+		}
+		if(this.count == 0) {
+			this.minWeightInGrammes = other.minWeightInGrammes;
+			this.maxWeightInGrammes = other.maxWeightInGrammes;
+			this.histogram = new long[Integer.SIZE + 1];
+		} else {
+			this.minWeightInGrammes = Math.min(this.minWeightInGrammes, other.minWeightInGrammes);
+			this.maxWeightInGrammes = Math.max(this.maxWeightInGrammes, other.maxWeightInGrammes);
+		}
+
+		long total = this.count + other.count;
+		double delta = other.mean - this.mean; // Chan et al.'s pairwise update
+		double otherSquaredDeviations = other.squaredDeviations;
+		this.squaredDeviations += otherSquaredDeviations
+				+ delta * delta * ((double) this.count * other.count / total);
+		this.mean += delta * other.count / total;
+		this.totalWeightInGrammes += other.totalWeightInGrammes;
+		this.nonPositiveCount += other.nonPositiveCount;
+
+		long[] otherHistogram = other.histogram.clone(); // other may be this
+		long[] otherSketch = other.sketch == null ? null : other.sketch.clone();
+		int otherSketchOffset = other.sketchOffset;
+		this.count = total;
+		for(int b = 0; b < otherHistogram.length; b++) {
+			this.histogram[b] += otherHistogram[b];
+		}
+		if(otherSketch != null) {
+			for(int i = 0; i < otherSketch.length; i++) {
+				if(otherSketch[i] != 0) {
+					this.addToSketch(i + otherSketchOffset, otherSketch[i]);
+				}
+			}
+		}
+    }
+
+    /**
+     * Resets these statistics to those of no weights.
+     */
+    public void reset() {
+		this.count = 0;
+		this.totalWeightInGrammes = 0;
+		this.mean = 0;
+		this.squaredDeviations = 0;
+		this.histogram = null;
+		this.nonPositiveCount = 0;
+		this.sketch = null;
+		this.sketchOffset = 0;
+    }
+
+    /* Accessors */
+
+    /**
+     * @return the number of weights
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /**
+     * @return the total of the weights in grammes
+     */
+    public long totalWeightInGrammes() {
+        return this.totalWeightInGrammes;
+    }
+
+    /**
+     * @return the least weight in grammes; 0 if there is no weight
+     */
+    public int minWeightInGrammes() {
+        return this.count == 0 ? 0 : this.minWeightInGrammes;
+    }
+
+    /**
+     * @return the greatest weight in grammes; 0 if there is no weight
+     */
+    public int maxWeightInGrammes() {
+        return this.count == 0 ? 0 : this.maxWeightInGrammes;
+    }
+
+    /**
+     * @return the mean of the weights in grammes; -1.0 if there is no weight,
+     *  as for Knapsack.averageWeightInGrammes
+     */
+    public double meanWeightInGrammes() {
+        return this.count == 0 ? -1.0 : this.mean;
+    }
+
+    /**
+     * @return the (population) variance of the weights in grammes squared;
+     *  0.0 if there is no weight
+     */
+    public double variance() {
+        return this.count == 0 ? 0.0 : this.squaredDeviations / this.count;
+    }
+
+    /**
+     * @return the (population) standard deviation of the weights in
+     *  grammes; 0.0 if there is no weight
+     */
+    public double standardDeviation() {
+        return Math.sqrt(this.variance());
+    }
+
+    /**
+     * Returns the q-quantile of the weights, e.g. the median for q = 0.5
+     * or the 95th percentile for q = 0.95, with a relative error of at most
+     * RELATIVE_ACCURACY. The result always lies between the least and the
+     * greatest weight; quantile(0) and quantile(1) are exact.
+     *
+     * @param q the quantile; must be between 0 and 1 (both inclusive)
+     * @return the q-quantile of the weights in grammes; 0.0 if there is no
+     *  weight
+     */
+    public double quantile(double q) {
+		if(!(q >= 0 && q <= 1)) {
+			throw new IllegalArgumentException("Expected 0 <= q <= 1; found " + q);
+		}
+		if(this.count == 0) {
+			return 0.0;
+		}
+		if(q == 0) {
+			return this.minWeightInGrammes;
+		}
+		if(q == 1) {
+			return this.maxWeightInGrammes;
+		}
+
+		long rank = (long) Math.ceil(q * this.count); // the rank-th least weight, 1-based
+		if(rank <= this.nonPositiveCount) {
+			return this.minWeightInGrammes; // all of them are treated as the least weight
+		}
+		long seen = this.nonPositiveCount;
+		for(int i = 0; i < this.sketch.length; i++) {
+			seen += this.sketch[i];
+			if(seen >= rank) {
+				double estimate = 2 * Math.pow(GAMMA, i + this.sketchOffset) / (GAMMA + 1);
+				return Math.max(this.minWeightInGrammes, Math.min(this.maxWeightInGrammes, estimate));
+			}
+		}
+		return this.maxWeightInGrammes;
+    }
+
+    /**
+     * Returns the number of weights in each power-of-two bucket: element 0
+     * counts the weights of 0 grammes or less, element b (1 to 32) counts
+     * the weights of at least 2^(b-1) and less than 2^b grammes.
+     *
+     * @return a new array of 33 counts
+     */
+    public long[] histogram() {
+        return this.histogram == null ? new long[Integer.SIZE + 1] : this.histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "(n=" + this.count() + ", total=" + this.totalWeightInGrammes()
+                + ", min=" + this.minWeightInGrammes() + ", max=" + this.maxWeightInGrammes()
+                + ", mean=" + this.meanWeightInGrammes() + ", sd=" + this.standardDeviation()
+                + ", p50=" + this.quantile(0.5) + ", p95=" + this.quantile(0.95)
+                + ", p99=" + this.quantile(0.99) + ")";
+    }
+
+    /**
+     * Returns the histogram bucket of a weight.
+     */
+    private static int histogramBucket(int weightInGrammes) {
+        return weightInGrammes <= 0 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(weightInGrammes);
+    }
+
+    /**
+     * Returns the sketch bucket index of a positive weight: the i with
+     * GAMMA^(i-1) < weight <= GAMMA^i.
+     */
+    private static int sketchBucket(int weightInGrammes) {
+        return (int) Math.ceil(Math.log(weightInGrammes) * INVERSE_LOG_GAMMA);
+    }
+
+    /**
+     * Adds n to the count of sketch bucket index, growing the sketch to
+     * cover the index if necessary.
+     */
+    private void addToSketch(int index, long n) {
+		if(this.sketch == null) {
+			this.sketch = new long[16];
+			this.sketchOffset = index - 8;
+		} else if(index < this.sketchOffset || index >= this.sketchOffset + this.sketch.length) {
+			int low = Math.min(index, this.sketchOffset);
+			int high = Math.max(index + 1, this.sketchOffset + this.sketch.length);
+			int length = Math.max(high - low, this.sketch.length * 2); // grow geometrically
+			long[] grown = new long[length];
+			int newOffset = index < this.sketchOffset ? high - length : low;
+			System.arraycopy(this.sketch, 0, grown, this.sketchOffset - newOffset, this.sketch.length);
+			this.sketch = grown;
+			this.sketchOffset = newOffset;
+		}
+		this.sketch[index - this.sketchOffset] += n;
+    }
+}